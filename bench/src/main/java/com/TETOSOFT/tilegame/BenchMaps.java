@@ -0,0 +1,108 @@
+package com.TETOSOFT.tilegame;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * Map files for the benchmarks. Besides the maps shipped in maps/,
+ * synthetic maps are written to temporary files: "large" is
+ * map1.txt repeated 50 times side by side, and "coinsN" is a flat
+ * map with N coins stacked in front of the player.
+ */
+public class BenchMaps 
+{
+    
+    private static final int LARGE_REPEAT = 50;
+    
+    /**
+     * Gets the file name of the map described by the specified
+     * benchmark parameter, writing it first if it's synthetic.
+     */
+    public static String getMapFile(String name) throws IOException 
+    {
+        if (name.equals("large")) {
+            return writeLargeMap("maps/map1.txt", LARGE_REPEAT);
+        }
+        if (name.startsWith("coins")) {
+            return writeCoinMap(Integer.parseInt(name.substring(5)));
+        }
+        return name;
+    }
+    
+    
+    /**
+     * Writes a map made of the specified map repeated side by
+     * side.
+     */
+    public static String writeLargeMap(String filename, int repeat)
+        throws IOException
+    {
+        ArrayList lines = new ArrayList();
+        int width = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(filename));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith("#")) {
+                lines.add(line);
+                width = Math.max(width, line.length());
+            }
+        }
+        reader.close();
+        
+        StringBuffer buffer = new StringBuffer();
+        for (int y=0; y<lines.size(); y++) {
+            StringBuffer row = new StringBuffer((String)lines.get(y));
+            while (row.length() < width) {
+                row.append(' ');
+            }
+            for (int i=0; i<repeat; i++) {
+                buffer.append(row);
+            }
+            buffer.append('\n');
+        }
+        return writeTempMap(buffer.toString());
+    }
+    
+    
+    /**
+     * Writes a flat map with the specified number of coins, four
+     * rows high, starting a few tiles right of the player.
+     */
+    public static String writeCoinMap(int coins) throws IOException 
+    {
+        int rows = 4;
+        int columns = (coins + rows - 1) / rows;
+        int width = columns + 16;
+        int height = 12;
+        
+        StringBuffer buffer = new StringBuffer();
+        int placed = 0;
+        for (int y=0; y<height; y++) {
+            for (int x=0; x<width; x++) {
+                char ch = ' ';
+                if (y == height - 1) {
+                    ch = 'B';
+                } else if (y >= height - 1 - rows && x >= 8 &&
+                        x < 8 + columns && placed < coins) {
+                    ch = 'o';
+                    placed++;
+                }
+                buffer.append(ch);
+            }
+            buffer.append('\n');
+        }
+        return writeTempMap(buffer.toString());
+    }
+    
+    
+    private static String writeTempMap(String text) throws IOException 
+    {
+        File file = File.createTempFile("benchmap", ".txt");
+        file.deleteOnExit();
+        Writer writer = new FileWriter(file);
+        writer.write(text);
+        writer.close();
+        return file.getPath();
+    }
+    
+}
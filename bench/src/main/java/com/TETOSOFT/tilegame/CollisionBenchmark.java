@@ -0,0 +1,56 @@
+package com.TETOSOFT.tilegame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.TETOSOFT.graphics.Sprite;
+
+/**
+ * Tile and sprite collision queries for the player on maps with
+ * different numbers of sprites.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CollisionBenchmark 
+{
+    
+    @Param({"coins10", "coins1000", "coins10000"})
+    public String map;
+    
+    private GameWorld world;
+    private Sprite player;
+    private TileSweep sweep = new TileSweep();
+    
+    @Setup
+    public void setup() throws Exception 
+    {
+        MapLoader mapLoader = new MapLoader(null);
+        world = new GameWorld(mapLoader,
+                mapLoader.loadMap(BenchMaps.getMapFile(map)));
+        player = world.getMap().getPlayer();
+        // stand on the ground, clear of the coins
+        player.setY(TileMapDrawer.tilesToPixels(world.getMap().getHeight() - 1) -
+                player.getHeight());
+    }
+    
+    
+    @Benchmark
+    public boolean tileCollision() 
+    {
+        return sweep.sweep(world.getMap(), player.getX(), player.getY(),
+                player.getWidth(), player.getHeight(), 5, 0);
+    }
+    
+    
+    @Benchmark
+    public Object spriteCollision() 
+    {
+        return world.getSpriteCollision(player);
+    }
+    
+}
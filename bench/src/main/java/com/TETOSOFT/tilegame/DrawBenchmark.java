@@ -0,0 +1,60 @@
+package com.TETOSOFT.tilegame;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * TileMapDrawer.draw() of a whole 800x600 frame into an offscreen
+ * image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DrawBenchmark 
+{
+    
+    private static final int SCREEN_WIDTH = 800;
+    private static final int SCREEN_HEIGHT = 600;
+    
+    @Param({"maps/map1.txt", "large"})
+    public String map;
+    
+    private TileMap tileMap;
+    private TileMapDrawer drawer;
+    private BufferedImage screenImage;
+    private Graphics2D g;
+    
+    @Setup
+    public void setup() throws Exception 
+    {
+        MapLoader mapLoader = new MapLoader(null);
+        tileMap = mapLoader.loadMap(BenchMaps.getMapFile(map));
+        drawer = new TileMapDrawer();
+        drawer.setBackground(mapLoader.loadImage("background.jpg"));
+        screenImage = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT,
+                BufferedImage.TYPE_INT_RGB);
+        g = screenImage.createGraphics();
+    }
+    
+    
+    @TearDown
+    public void tearDown() 
+    {
+        g.dispose();
+    }
+    
+    
+    @Benchmark
+    public BufferedImage draw() 
+    {
+        drawer.draw(g, tileMap, SCREEN_WIDTH, SCREEN_HEIGHT);
+        return screenImage;
+    }
+    
+}
@@ -0,0 +1,40 @@
+package com.TETOSOFT.tilegame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * MapLoader.loadMap() of a shipped map and of a synthetic large
+ * map, including reading the file and cloning every sprite.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MapLoadBenchmark 
+{
+    
+    @Param({"maps/map1.txt", "maps/map4.txt", "large"})
+    public String map;
+    
+    private MapLoader mapLoader;
+    private String mapFile;
+    
+    @Setup
+    public void setup() throws Exception 
+    {
+        mapLoader = new MapLoader(null);
+        mapFile = BenchMaps.getMapFile(map);
+    }
+    
+    
+    @Benchmark
+    public TileMap loadMap() throws Exception 
+    {
+        return mapLoader.loadMap(mapFile);
+    }
+    
+}
@@ -0,0 +1,62 @@
+package com.TETOSOFT.tilegame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.TETOSOFT.graphics.EntityStore;
+
+/**
+ * One GameWorld.update() tick of 8 ms on each shipped map and on
+ * synthetic large maps. Nobody steers the player, so deaths and map
+ * reloads happen at the rate they would in an idle game. Run with
+ * and without an EntityStore for the creatures.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class UpdateBenchmark 
+{
+    
+    private static final long STEP_TIME = 8;
+    
+    @Param({"maps/map1.txt", "maps/map2.txt", "maps/map3.txt",
+            "maps/map4.txt", "large", "coins10000"})
+    public String map;
+    
+    @Param({"false", "true"})
+    public boolean entityStore;
+    
+    private MapLoader mapLoader;
+    private String mapFile;
+    private GameWorld world;
+    
+    @Setup(Level.Trial)
+    public void loadResources() throws Exception 
+    {
+        mapLoader = new MapLoader(null);
+        mapFile = BenchMaps.getMapFile(map);
+    }
+    
+    
+    @Setup(Level.Iteration)
+    public void startWorld() throws Exception 
+    {
+        world = new GameWorld(mapLoader, mapLoader.loadMap(mapFile));
+        if (entityStore) {
+            world.setEntityStore(new EntityStore());
+        }
+    }
+    
+    
+    @Benchmark
+    public GameWorld tick() 
+    {
+        world.update(STEP_TIME);
+        return world;
+    }
+    
+}
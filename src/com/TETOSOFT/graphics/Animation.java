@@ -1,6 +1,7 @@
 package com.TETOSOFT.graphics;
 
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.util.ArrayList;
 
 public class Animation 
@@ -33,9 +34,23 @@ public class Animation
 
 
     public synchronized void addFrame(Image image, long duration)
+    {
+        addFrame(image, duration, null);
+    }
+
+
+    /**
+        Adds a frame with the specified CollisionMask. The frame's
+        hitbox is the bounds of the mask's opaque pixels, which
+        leaves out the transparent edges of the image. If the mask
+        is null, the whole image is the hitbox. The image must
+        already be loaded.
+    */
+    public synchronized void addFrame(Image image, long duration,
+        CollisionMask mask)
     {
         totalDuration += duration;
-        frames.add(new AnimFrame(image, totalDuration));
+        frames.add(new AnimFrame(image, totalDuration, mask));
     }
 
 
@@ -79,6 +94,45 @@ public class Animation
     }
 
 
+    /**
+        Gets the width of the current frame's image. Unlike
+        getImage().getWidth(null), this doesn't lock the Animation
+        or ask the image.
+    */
+    public int getWidth()
+    {
+        return getFrame(currFrameIndex).width;
+    }
+
+
+    /**
+        Gets the height of the current frame's image.
+    */
+    public int getHeight()
+    {
+        return getFrame(currFrameIndex).height;
+    }
+
+
+    /**
+        Gets the current frame's hitbox.
+    */
+    public Rectangle getHitbox()
+    {
+        return getFrame(currFrameIndex).hitbox;
+    }
+
+
+    /**
+        Gets the current frame's CollisionMask, or null if it has
+        none.
+    */
+    public CollisionMask getCollisionMask()
+    {
+        return getFrame(currFrameIndex).mask;
+    }
+
+
     private AnimFrame getFrame(int i) 
     {
         return (AnimFrame)frames.get(i);
@@ -88,11 +142,26 @@ public class Animation
     {
         Image image;
         long endTime;
+        int width;
+        int height;
+        Rectangle hitbox;
+        CollisionMask mask;
 
-        public AnimFrame(Image image, long endTime) 
+        public AnimFrame(Image image, long endTime, CollisionMask mask) 
         {
             this.image = image;
             this.endTime = endTime;
+            this.mask = mask;
+            width = image.getWidth(null);
+            height = image.getHeight(null);
+            if (mask != null) 
+            {
+                hitbox = mask.getBounds();
+            }
+            else 
+            {
+                hitbox = new Rectangle(0, 0, width, height);
+            }
         }
     }
 }
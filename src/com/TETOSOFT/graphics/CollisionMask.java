@@ -0,0 +1,182 @@
+package com.TETOSOFT.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+    The CollisionMask class holds one bit per pixel of an image: set
+    if the pixel isn't transparent. Each row is packed into longs,
+    with the leftmost pixel in the lowest bit, so two masks are
+    tested for overlapping pixels 64 pixels at a time by shifting one
+    row against the other and ANDing them.
+*/
+public class CollisionMask
+{
+    private int width;
+    private int height;
+    private int wordsPerRow;
+    private long[] bits;
+    private Rectangle bounds;
+
+
+    /**
+        Creates a CollisionMask of a loaded image.
+    */
+    public CollisionMask(Image image)
+    {
+        width = image.getWidth(null);
+        height = image.getHeight(null);
+        wordsPerRow = (width + 63) >> 6;
+        bits = new long[wordsPerRow * height];
+
+        // get at the pixels
+        BufferedImage pixels;
+        if (image instanceof BufferedImage)
+        {
+            pixels = (BufferedImage)image;
+        }
+        else
+        {
+            pixels = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = pixels.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        }
+
+        int minX = width;
+        int minY = height;
+        int maxX = -1;
+        int maxY = -1;
+        for (int y=0; y<height; y++)
+        {
+            for (int x=0; x<width; x++)
+            {
+                if ((pixels.getRGB(x, y) >>> 24) != 0)
+                {
+                    bits[y * wordsPerRow + (x >> 6)] |= 1L << x;
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+        }
+
+        if (maxX < 0)
+        {
+            // fully transparent: nothing to hit
+            bounds = new Rectangle(0, 0, 0, 0);
+        }
+        else
+        {
+            bounds = new Rectangle(minX, minY,
+                maxX - minX + 1, maxY - minY + 1);
+        }
+    }
+
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+
+    /**
+        Gets the smallest rectangle that holds every opaque pixel.
+        Don't modify the Rectangle.
+    */
+    public Rectangle getBounds()
+    {
+        return bounds;
+    }
+
+
+    /**
+        Checks if the pixel at the specified position is opaque.
+    */
+    public boolean isOpaque(int x, int y)
+    {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+        {
+            return false;
+        }
+        return (bits[y * wordsPerRow + (x >> 6)] & (1L << x)) != 0;
+    }
+
+
+    /**
+        Checks if an opaque pixel of this mask covers an opaque
+        pixel of another mask placed dx, dy pixels to the right of
+        and below this one.
+    */
+    public boolean overlaps(CollisionMask other, int dx, int dy)
+    {
+        // only the rows and columns where both masks have opaque
+        // pixels need to be compared
+        Rectangle otherBounds = other.bounds;
+        int fromX = Math.max(bounds.x, otherBounds.x + dx);
+        int toX = Math.min(bounds.x + bounds.width,
+            otherBounds.x + otherBounds.width + dx);
+        int fromY = Math.max(bounds.y, otherBounds.y + dy);
+        int toY = Math.min(bounds.y + bounds.height,
+            otherBounds.y + otherBounds.height + dy);
+        if (fromX >= toX)
+        {
+            return false;
+        }
+        int fromWord = fromX >> 6;
+        int toWord = (toX + 63) >> 6;
+
+        for (int y=fromY; y<toY; y++)
+        {
+            int row = y * wordsPerRow;
+            int otherY = y - dy;
+            for (int word=fromWord; word<toWord; word++)
+            {
+                // the other mask's bits under this word
+                long otherBits = other.getBits(otherY, (word << 6) - dx);
+                if ((bits[row + word] & otherBits) != 0)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    /**
+        Gets 64 bits of a row starting at the specified pixel, which
+        may be outside the mask. Pixels outside the mask are 0.
+    */
+    private long getBits(int y, int fromX)
+    {
+        int word = fromX >> 6;
+        int shift = fromX & 63;
+        long result = getWord(y, word) >>> shift;
+        if (shift != 0)
+        {
+            result |= getWord(y, word + 1) << (64 - shift);
+        }
+        return result;
+    }
+
+
+    private long getWord(int y, int word)
+    {
+        if (word < 0 || word >= wordsPerRow)
+        {
+            return 0;
+        }
+        return bits[y * wordsPerRow + word];
+    }
+}
@@ -0,0 +1,161 @@
+package com.TETOSOFT.graphics;
+
+/**
+    The EntitySprite class is a Sprite whose position and velocity
+    can be moved into an EntityStore. While it is in a store, its
+    getters and setters read and write the store's arrays instead
+    of its own fields. Sprites that never go in a store extend
+    Sprite, whose getters and setters don't check for one.
+*/
+public class EntitySprite extends Sprite {
+
+    // when in an EntityStore, x, y, dx and dy are kept there
+    private EntityStore store;
+    private int slot;
+
+
+    public EntitySprite(Animation anim)
+    {
+        super(anim);
+    }
+
+
+    public float getX()
+    {
+        return (store == null) ? super.getX() : store.x[slot];
+    }
+
+
+    public float getY()
+    {
+        return (store == null) ? super.getY() : store.y[slot];
+    }
+
+
+    public void setX(float x)
+    {
+        if (store == null) {
+            super.setX(x);
+        }
+        else {
+            store.x[slot] = x;
+        }
+    }
+
+
+    public void setY(float y)
+    {
+        if (store == null) {
+            super.setY(y);
+        }
+        else {
+            store.y[slot] = y;
+        }
+    }
+
+
+    public float getVelocityX()
+    {
+        return (store == null) ? super.getVelocityX() : store.dx[slot];
+    }
+
+
+    public float getVelocityY()
+    {
+        return (store == null) ? super.getVelocityY() : store.dy[slot];
+    }
+
+
+    public void setVelocityX(float dx)
+    {
+        if (store == null) {
+            super.setVelocityX(dx);
+        }
+        else {
+            store.dx[slot] = dx;
+        }
+    }
+
+
+    public void setVelocityY(float dy)
+    {
+        if (store == null) {
+            super.setVelocityY(dy);
+        }
+        else {
+            store.dy[slot] = dy;
+        }
+    }
+
+
+    /**
+        Gets the x position the last EntityStore.integrate() worked
+        out for this Sprite. Only call while it is in a store.
+    */
+    public float getTargetX()
+    {
+        return store.targetX[slot];
+    }
+
+
+    /**
+        Gets the y position the last EntityStore.integrate() worked
+        out for this Sprite. Only call while it is in a store.
+    */
+    public float getTargetY()
+    {
+        return store.targetY[slot];
+    }
+
+
+    /**
+        Gets the EntityStore this Sprite's position and velocity
+        are kept in, or null if they are kept in this Sprite.
+    */
+    public EntityStore getEntityStore()
+    {
+        return store;
+    }
+
+
+    /**
+        Gets the slot of this Sprite in its EntityStore.
+    */
+    public int getSlot()
+    {
+        return slot;
+    }
+
+
+    /**
+        Moves this Sprite's state into a slot of an EntityStore,
+        which has already copied it. Only the store should call
+        this.
+    */
+    void attach(EntityStore store, int slot)
+    {
+        this.store = store;
+        this.slot = slot;
+    }
+
+
+    /**
+        Moves this Sprite's state back out of its EntityStore.
+        Only the store should call this.
+    */
+    void detach()
+    {
+        EntityStore store = this.store;
+        this.store = null;
+        setX(store.x[slot]);
+        setY(store.y[slot]);
+        setVelocityX(store.dx[slot]);
+        setVelocityY(store.dy[slot]);
+    }
+
+
+    public Object clone()
+    {
+        return new EntitySprite(anim);
+    }
+}
@@ -0,0 +1,206 @@
+package com.TETOSOFT.graphics;
+
+/**
+    The EntityStore class keeps the position and velocity of many
+    Sprites in parallel float arrays (a structure of arrays) instead
+    of in each Sprite object. An EntitySprite added to a store
+    becomes a view of its slot: its getters and setters read and
+    write the arrays, so code that uses Sprites keeps working.
+    <p>Passes over every entity, like integrate(), are plain
+    loops over the arrays. They touch only the memory they need and
+    are simple enough for the JIT compiler to turn into SIMD
+    instructions.
+    <p>Slots are kept packed: removing a Sprite moves the last one
+    into its slot.
+*/
+public class EntityStore
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    // read directly by EntitySprite
+    float[] x = new float[INITIAL_CAPACITY];
+    float[] y = new float[INITIAL_CAPACITY];
+    float[] dx = new float[INITIAL_CAPACITY];
+    float[] dy = new float[INITIAL_CAPACITY];
+    float[] targetX = new float[INITIAL_CAPACITY];
+    float[] targetY = new float[INITIAL_CAPACITY];
+
+    private float[] gravity = new float[INITIAL_CAPACITY];
+    private EntitySprite[] sprites =
+        new EntitySprite[INITIAL_CAPACITY];
+    private int[] marks = new int[INITIAL_CAPACITY];
+    private int mark;
+    private int count;
+
+
+    /**
+        Gets the number of Sprites in this store.
+    */
+    public int size()
+    {
+        return count;
+    }
+
+
+    /**
+        Adds a Sprite, which falls with the specified gravity (0
+        for Sprites that don't fall). Its position and velocity are
+        moved into the store.
+    */
+    public void add(EntitySprite sprite, float gravity)
+    {
+        if (count == sprites.length) {
+            grow(count * 2);
+        }
+        int slot = count++;
+        x[slot] = sprite.getX();
+        y[slot] = sprite.getY();
+        dx[slot] = sprite.getVelocityX();
+        dy[slot] = sprite.getVelocityY();
+        this.gravity[slot] = gravity;
+        sprites[slot] = sprite;
+        marks[slot] = mark;
+        sprite.attach(this, slot);
+    }
+
+
+    /**
+        Removes a Sprite. Its position and velocity are moved back
+        into the Sprite. Does nothing if the Sprite isn't in this
+        store.
+    */
+    public void remove(EntitySprite sprite)
+    {
+        if (sprite.getEntityStore() == this) {
+            removeSlot(sprite.getSlot());
+        }
+    }
+
+
+    /**
+        Removes every Sprite.
+    */
+    public void clear()
+    {
+        while (count > 0) {
+            removeSlot(count - 1);
+        }
+    }
+
+
+    /**
+        Starts a new round of marking. Sprites that aren't marked
+        before the next call to removeUnmarked() are removed.
+    */
+    public void startMarking()
+    {
+        mark++;
+    }
+
+
+    /**
+        Marks a Sprite to keep it, adding it if it isn't in this
+        store yet, and sets its gravity.
+    */
+    public void mark(EntitySprite sprite, float gravity)
+    {
+        if (sprite.getEntityStore() != this) {
+            add(sprite, gravity);
+        }
+        else {
+            marks[sprite.getSlot()] = mark;
+            this.gravity[sprite.getSlot()] = gravity;
+        }
+    }
+
+
+    /**
+        Removes every Sprite that wasn't marked since the last call
+        to startMarking().
+    */
+    public void removeUnmarked()
+    {
+        for (int i=count-1; i>=0; i--) {
+            if (marks[i] != mark) {
+                removeSlot(i);
+            }
+        }
+    }
+
+
+    /**
+        Adds each Sprite's gravity, multiplied by the elapsed time,
+        to its vertical velocity, then works out where its velocity
+        takes it in that time. The Sprites aren't moved: the
+        targets are read with getTargetX() and getTargetY() by the
+        code that checks what is in the way.
+    */
+    public void integrate(long elapsedTime)
+    {
+        float[] x = this.x;
+        float[] y = this.y;
+        float[] dx = this.dx;
+        float[] dy = this.dy;
+        float[] gravity = this.gravity;
+        float[] targetX = this.targetX;
+        float[] targetY = this.targetY;
+        for (int i=0; i<count; i++) {
+            dy[i] += gravity[i] * elapsedTime;
+        }
+        for (int i=0; i<count; i++) {
+            targetX[i] = x[i] + dx[i] * elapsedTime;
+        }
+        for (int i=0; i<count; i++) {
+            targetY[i] = y[i] + dy[i] * elapsedTime;
+        }
+    }
+
+
+    private void removeSlot(int slot)
+    {
+        EntitySprite sprite = sprites[slot];
+        sprite.detach();
+
+        // move the last sprite into the free slot
+        int last = --count;
+        if (slot != last) {
+            x[slot] = x[last];
+            y[slot] = y[last];
+            dx[slot] = dx[last];
+            dy[slot] = dy[last];
+            targetX[slot] = targetX[last];
+            targetY[slot] = targetY[last];
+            gravity[slot] = gravity[last];
+            marks[slot] = marks[last];
+            sprites[slot] = sprites[last];
+            sprites[slot].attach(this, slot);
+        }
+        sprites[last] = null;
+    }
+
+
+    private void grow(int capacity)
+    {
+        x = copyOf(x, capacity);
+        y = copyOf(y, capacity);
+        dx = copyOf(dx, capacity);
+        dy = copyOf(dy, capacity);
+        targetX = copyOf(targetX, capacity);
+        targetY = copyOf(targetY, capacity);
+        gravity = copyOf(gravity, capacity);
+        int[] newMarks = new int[capacity];
+        System.arraycopy(marks, 0, newMarks, 0, count);
+        marks = newMarks;
+        EntitySprite[] newSprites = new EntitySprite[capacity];
+        System.arraycopy(sprites, 0, newSprites, 0, count);
+        sprites = newSprites;
+    }
+
+
+    private float[] copyOf(float[] array, int capacity)
+    {
+        float[] newArray = new float[capacity];
+        System.arraycopy(array, 0, newArray, 0, count);
+        return newArray;
+    }
+}
@@ -1,9 +1,15 @@
 package com.TETOSOFT.graphics;
 
 import java.awt.Image;
+import java.awt.Rectangle;
 
 public class Sprite {
 
+    /**
+        Cell of a Sprite that isn't in a spatial index.
+    */
+    public static final long NO_CELL = Long.MIN_VALUE;
+
     protected Animation anim;
     
     private float x;
@@ -12,6 +18,13 @@ public class Sprite {
     private float dx;
     private float dy;
 
+    // position before the last update, used for interpolation
+    private float prevX;
+    private float prevY;
+
+    // cell this Sprite is filed under in a spatial index
+    private long cell = NO_CELL;
+
     
     public Sprite(Animation anim) 
     {
@@ -22,8 +35,8 @@ public class Sprite {
     
     public void update(long elapsedTime) 
     {
-        x += dx * elapsedTime;
-        y += dy * elapsedTime;
+        setX(getX() + getVelocityX() * elapsedTime);
+        setY(getY() + getVelocityY() * elapsedTime);
         anim.update(elapsedTime);
     }
 
@@ -39,6 +52,37 @@ public class Sprite {
     }
 
     
+    /**
+        Remembers the current position as the position before the
+        next update.
+    */
+    public void savePosition()
+    {
+        prevX = getX();
+        prevY = getY();
+    }
+
+
+    /**
+        Gets the x position between the saved position (alpha 0)
+        and the current position (alpha 1).
+    */
+    public float getInterpolatedX(float alpha)
+    {
+        return prevX + (getX() - prevX) * alpha;
+    }
+
+
+    /**
+        Gets the y position between the saved position (alpha 0)
+        and the current position (alpha 1).
+    */
+    public float getInterpolatedY(float alpha)
+    {
+        return prevY + (getY() - prevY) * alpha;
+    }
+
+
     public void setX(float x) 
     {
         this.x = x;
@@ -53,13 +97,33 @@ public class Sprite {
    
     public int getWidth() 
     {
-        return anim.getImage().getWidth(null);
+        return anim.getWidth();
     }
 
     
     public int getHeight() 
     {
-        return anim.getImage().getHeight(null);
+        return anim.getHeight();
+    }
+
+
+    /**
+        Gets the hitbox of the current frame, relative to the
+        Sprite's position. Don't modify the Rectangle.
+    */
+    public Rectangle getHitbox()
+    {
+        return anim.getHitbox();
+    }
+
+
+    /**
+        Gets the CollisionMask of the current frame, or null if it
+        has none.
+    */
+    public CollisionMask getCollisionMask()
+    {
+        return anim.getCollisionMask();
     }
 
     
@@ -87,6 +151,26 @@ public class Sprite {
     }
 
     
+    /**
+        Gets the cell this Sprite is filed under in a spatial
+        index, or NO_CELL.
+    */
+    public long getCell()
+    {
+        return cell;
+    }
+
+
+    /**
+        Sets the cell this Sprite is filed under in a spatial
+        index. Only the index should call this.
+    */
+    public void setCell(long cell)
+    {
+        this.cell = cell;
+    }
+
+
     public Image getImage() 
     {
         return anim.getImage();
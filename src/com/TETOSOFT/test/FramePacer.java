@@ -0,0 +1,180 @@
+package com.TETOSOFT.test;
+
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+
+/**
+    The FramePacer class holds the game loop to a target frame
+    rate. Most of the wait is spent in Thread.sleep(), which is
+    cheap but coarse; the last couple of milliseconds are spent
+    yielding and then spinning so the deadline is hit precisely.
+    <p>A target of 0 means unlimited: sync() returns right away.
+    Deadlines that are already gone when sync() is called are
+    counted as missed. The statistics can be registered as an
+    MBean and read from other threads while the game runs.
+*/
+public class FramePacer implements FramePacerMBean {
+
+    // stop sleeping this long before the deadline
+    private static final long SLEEP_MARGIN = 2000000;
+    // stop yielding and start spinning this long before it
+    private static final long YIELD_MARGIN = 200000;
+
+    private long framePeriod;
+    private long deadline;
+    // volatile, so JMX readers see the counts the loop writes
+    private volatile long frameCount;
+    private volatile long missedCount;
+
+
+    /**
+        Creates a new FramePacer with the specified target frame
+        rate, or 0 for unlimited.
+    */
+    public FramePacer(int targetFps) {
+        setTargetFps(targetFps);
+    }
+
+
+    /**
+        Sets the target frame rate, or 0 for unlimited. Resets the
+        statistics.
+    */
+    public void setTargetFps(int targetFps) {
+        if (targetFps > 0) {
+            framePeriod = 1000000000L / targetFps;
+        }
+        else {
+            framePeriod = 0;
+        }
+        deadline = 0;
+        frameCount = 0;
+        missedCount = 0;
+    }
+
+
+    /**
+        Gets the target frame rate, or 0 if unlimited.
+    */
+    public int getTargetFps() {
+        if (framePeriod == 0) {
+            return 0;
+        }
+        return (int)(1000000000L / framePeriod);
+    }
+
+
+    /**
+        Waits until the end of the current frame. Call once per
+        frame, after the screen is updated.
+    */
+    public void sync() {
+        frameCount++;
+        if (framePeriod == 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (deadline == 0) {
+            // first frame, nothing to wait for
+            deadline = now + framePeriod;
+            return;
+        }
+
+        if (now > deadline) {
+            missedCount++;
+            if (now - deadline > framePeriod) {
+                // more than a frame late, start a new cadence
+                // instead of rushing through the next frames
+                deadline = now + framePeriod;
+            }
+            else {
+                deadline += framePeriod;
+            }
+            return;
+        }
+
+        // coarse wait
+        long remaining = deadline - now;
+        while (remaining > SLEEP_MARGIN) {
+            try {
+                Thread.sleep((remaining - SLEEP_MARGIN) / 1000000,
+                    (int)((remaining - SLEEP_MARGIN) % 1000000));
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+
+        // fine wait
+        while (remaining > YIELD_MARGIN) {
+            Thread.yield();
+            remaining = deadline - System.nanoTime();
+        }
+        while (remaining > 0) {
+            remaining = deadline - System.nanoTime();
+        }
+
+        deadline += framePeriod;
+    }
+
+
+    /**
+        Gets the number of frames since the target was set.
+    */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+
+    /**
+        Gets the number of frames that finished after their
+        deadline.
+    */
+    public long getMissedCount() {
+        return missedCount;
+    }
+
+
+    /**
+        Gets the percentage of frames that missed their deadline.
+    */
+    public float getMissedPercent() {
+        if (frameCount == 0) {
+            return 0;
+        }
+        return 100f * missedCount / frameCount;
+    }
+
+
+    /**
+        Registers this FramePacer with the platform MBean server,
+        named com.TETOSOFT.tilegame:type=FramePacing. Does nothing
+        if one is already registered.
+    */
+    public void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(
+                "com.TETOSOFT.tilegame:type=FramePacing");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        }
+        catch (JMException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+
+    public String toString() {
+        if (framePeriod == 0) {
+            return "FramePacer: unlimited, " + frameCount + " frames";
+        }
+        return "FramePacer: " + getTargetFps() + " fps target, " +
+            frameCount + " frames, " + missedCount + " missed (" +
+            Math.round(getMissedPercent() * 10) / 10f + "%)";
+    }
+}
@@ -0,0 +1,15 @@
+package com.TETOSOFT.test;
+
+/**
+    Management interface of a FramePacer.
+*/
+public interface FramePacerMBean {
+
+    public int getTargetFps();
+
+    public long getFrameCount();
+
+    public long getMissedCount();
+
+    public float getMissedPercent();
+}
@@ -0,0 +1,135 @@
+package com.TETOSOFT.test;
+
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+
+/**
+    The FrameProfiler class times the phases of a frame, keeping
+    a LatencyHistogram for each. Each histogram can be registered
+    as an MBean, so frame times can be watched with JConsole or
+    any JMX client while the game runs.
+    <p>A phase is timed like this:
+    <pre>
+    long start = profiler.time();
+    ...
+    profiler.record(FrameProfiler.INPUT, start);
+    </pre>
+    A disabled profiler doesn't read the clock or record anything.
+    Each phase must always be recorded from the same thread.
+*/
+public class FrameProfiler {
+
+    public static final int INPUT = 0;
+    public static final int PHYSICS = 1;
+    public static final int SPRITES = 2;
+    public static final int TILES = 3;
+    public static final int HUD = 4;
+    public static final int PRESENT = 5;
+
+    private static final String[] PHASE_NAMES = {
+        "input", "physics", "sprites", "tiles", "hud", "present"
+    };
+
+    /**
+        A profiler that never records anything.
+    */
+    public static final FrameProfiler DISABLED = new FrameProfiler(false);
+
+    private boolean enabled;
+    private LatencyHistogram[] phases;
+
+
+    /**
+        Creates a new, enabled FrameProfiler.
+    */
+    public FrameProfiler() {
+        this(true);
+    }
+
+
+    private FrameProfiler(boolean enabled) {
+        this.enabled = enabled;
+        phases = new LatencyHistogram[PHASE_NAMES.length];
+        for (int i=0; i<phases.length; i++) {
+            phases[i] = new LatencyHistogram(PHASE_NAMES[i]);
+        }
+    }
+
+
+    /**
+        Gets the current time in nanoseconds, or 0 if this
+        profiler is disabled.
+    */
+    public long time() {
+        if (enabled) {
+            return System.nanoTime();
+        }
+        return 0;
+    }
+
+
+    /**
+        Records the time from start (from time()) to now for the
+        specified phase.
+    */
+    public void record(int phase, long start) {
+        if (enabled) {
+            phases[phase].record(System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+        Records a duration, in nanoseconds, for the specified
+        phase. Use this for phases that are timed in several
+        pieces.
+    */
+    public void recordDuration(int phase, long nanos) {
+        if (enabled) {
+            phases[phase].record(nanos);
+        }
+    }
+
+
+    /**
+        Gets the histogram of the specified phase.
+    */
+    public LatencyHistogram getHistogram(int phase) {
+        return phases[phase];
+    }
+
+
+    /**
+        Registers the histogram of every phase with the platform
+        MBean server, named
+        com.TETOSOFT.tilegame:type=FrameTiming,phase=&lt;name&gt;.
+        Phases that are already registered are skipped.
+    */
+    public void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (int i=0; i<phases.length; i++) {
+            try {
+                ObjectName name = new ObjectName(
+                    "com.TETOSOFT.tilegame:type=FrameTiming,phase=" +
+                    PHASE_NAMES[i]);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(phases[i], name);
+                }
+            }
+            catch (JMException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        for (int i=0; i<phases.length; i++) {
+            if (phases[i].getCount() > 0) {
+                buffer.append(phases[i]).append('\n');
+            }
+        }
+        return buffer.toString();
+    }
+}
@@ -25,9 +25,28 @@ public abstract class GameCore {
         new DisplayMode(1024, 768, 24, 0),
     };
 
-    private boolean isRunning;
+    /**
+        Upper bound on the number of fixed updates run before a
+        frame is drawn. If the simulation falls further behind
+        than this, the remaining time is dropped.
+    */
+    private static final int MAX_UPDATES_PER_FRAME = 5;
+
+    /**
+        Update rate of the simulation thread if no fixed update
+        rate is set.
+    */
+    private static final int DEFAULT_UPDATE_RATE = 120;
+
+    private volatile boolean isRunning;
     protected ScreenManager screen;
 
+    // length of a fixed update in nanoseconds, 0 for variable
+    private long updatePeriod;
+    private FramePacer pacer = new FramePacer(0);
+    private FrameProfiler profiler = FrameProfiler.DISABLED;
+    private boolean threaded;
+
 
     /**
         Signals the game loop that it's time to quit
@@ -95,6 +114,74 @@ public abstract class GameCore {
     }
 
 
+    /**
+        Sets the number of fixed-length updates per second. A rate
+        of 0 (the default) passes the real elapsed time of each
+        frame to update() instead.
+    */
+    public void setFixedUpdateRate(int updatesPerSecond) {
+        if (updatesPerSecond > 0) {
+            updatePeriod = 1000000000L / updatesPerSecond;
+        }
+        else {
+            updatePeriod = 0;
+        }
+    }
+
+
+    /**
+        Sets the target frame rate, or 0 to draw frames as fast
+        as possible.
+    */
+    public void setTargetFrameRate(int framesPerSecond) {
+        pacer.setTargetFps(framesPerSecond);
+    }
+
+
+    /**
+        Sets whether update() runs on its own simulation thread,
+        separate from drawing. Subclasses that use this must hand
+        frames to draw() through publishFrame().
+    */
+    public void setThreaded(boolean threaded) {
+        this.threaded = threaded;
+    }
+
+
+    /**
+        Checks if update() runs on its own simulation thread.
+    */
+    public boolean isThreaded() {
+        return threaded;
+    }
+
+
+    /**
+        Gets the FramePacer used by the game loop.
+    */
+    public FramePacer getFramePacer() {
+        return pacer;
+    }
+
+
+    /**
+        Sets the FrameProfiler that times the phases of each
+        frame. The default profiler is disabled.
+    */
+    public void setProfiler(FrameProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+
+    /**
+        Gets the FrameProfiler that times the phases of each
+        frame.
+    */
+    public FrameProfiler getProfiler() {
+        return profiler;
+    }
+
+
     public Image loadImage(String fileName) {
         return new ImageIcon(fileName).getImage();
     }
@@ -104,6 +191,23 @@ public abstract class GameCore {
         Runs through the game loop until stop() is called.
     */
     public void gameLoop() {
+        if (threaded) {
+            threadedLoop();
+        }
+        else if (updatePeriod > 0) {
+            fixedStepLoop();
+        }
+        else {
+            variableStepLoop();
+        }
+    }
+
+
+    /**
+        Game loop that updates once per frame with the time elapsed
+        since the previous frame.
+    */
+    private void variableStepLoop() {
         long startTime = System.currentTimeMillis();
         long currTime = startTime;
 
@@ -119,17 +223,152 @@ public abstract class GameCore {
             Graphics2D g = screen.getGraphics();
             draw(g);
             g.dispose();
-            screen.update();
+            present();
+
+            // wait for the next frame
+            pacer.sync();
+        }
+    }
 
-            // don't take a nap! run as fast as possible
-            /*try {
-                Thread.sleep(20);
+
+    /**
+        Game loop that advances the simulation in fixed steps of
+        updatePeriod, however fast frames are drawn. Real time is
+        collected in an accumulator and consumed one step at a time;
+        the leftover fraction of a step is passed to draw() so
+        sprites can be drawn between their last two positions.
+        <p>update() still takes whole milliseconds, so each step is
+        given the milliseconds crossed by the simulation clock
+        (8 or 9 ms at 120 Hz). The sequence only depends on the
+        number of steps taken.
+    */
+    private void fixedStepLoop() {
+        long simTime = 0;
+        long accumulator = 0;
+        long currTime = System.nanoTime();
+
+        while (isRunning) {
+            long now = System.nanoTime();
+            accumulator += now - currTime;
+            currTime = now;
+
+            // update
+            int updates = 0;
+            while (accumulator >= updatePeriod &&
+                updates < MAX_UPDATES_PER_FRAME)
+            {
+                long stepTime = (simTime + updatePeriod) / 1000000 -
+                    simTime / 1000000;
+                simTime += updatePeriod;
+                accumulator -= updatePeriod;
+                update(stepTime);
+                updates++;
             }
-            catch (InterruptedException ex) { }*/
+
+            // too far behind (a hitch or a paused window), so
+            // drop the backlog instead of trying to catch up
+            if (accumulator >= updatePeriod) {
+                accumulator %= updatePeriod;
+            }
+
+            // draw the screen
+            float alpha = (float)accumulator / updatePeriod;
+            Graphics2D g = screen.getGraphics();
+            draw(g, alpha);
+            g.dispose();
+            present();
+
+            // wait for the next frame
+            pacer.sync();
         }
     }
 
 
+    /**
+        Game loop that draws frames on this thread while a
+        simulation thread updates the game at the fixed update
+        rate (or DEFAULT_UPDATE_RATE). A slow screen update never
+        delays the simulation, and the simulation never waits for
+        a frame to be drawn.
+    */
+    private void threadedLoop() {
+        Thread simulation = new Thread("Simulation") {
+            public void run() {
+                try {
+                    simulationLoop();
+                }
+                finally {
+                    // don't leave the render loop running alone
+                    GameCore.this.stop();
+                }
+            }
+        };
+        simulation.start();
+
+        while (isRunning) {
+            Graphics2D g = screen.getGraphics();
+            draw(g, 1);
+            g.dispose();
+            present();
+
+            // wait for the next frame
+            pacer.sync();
+        }
+
+        try {
+            simulation.join();
+        }
+        catch (InterruptedException ex) { }
+    }
+
+
+    /**
+        Runs on the simulation thread, updating in fixed steps
+        and publishing a frame after each one.
+    */
+    private void simulationLoop() {
+        long period = updatePeriod;
+        if (period == 0) {
+            period = 1000000000L / DEFAULT_UPDATE_RATE;
+        }
+        FramePacer updatePacer =
+            new FramePacer((int)(1000000000L / period));
+        long simTime = 0;
+
+        while (isRunning) {
+            long stepTime = (simTime + period) / 1000000 -
+                simTime / 1000000;
+            simTime += period;
+            update(stepTime);
+            publishFrame();
+
+            // wait for the next update
+            updatePacer.sync();
+        }
+    }
+
+
+    /**
+        Shows the frame that was just drawn, timing it as the
+        PRESENT phase.
+    */
+    private void present() {
+        long start = profiler.time();
+        screen.update();
+        profiler.record(FrameProfiler.PRESENT, start);
+    }
+
+
+    /**
+        Called on the simulation thread after each update() when
+        threaded. Subclasses capture what draw() needs here. By
+        default, does nothing.
+    */
+    public void publishFrame() {
+        // do nothing
+    }
+
+
     /**
         Updates the state of the game/animation based on the
         amount of elapsed time that has passed.
@@ -144,4 +383,14 @@ public abstract class GameCore {
         method.
     */
     public abstract void draw(Graphics2D g);
+
+
+    /**
+        Draws to the screen, where alpha (0 to 1) is how far the
+        current time is between the last two fixed updates. By
+        default alpha is ignored.
+    */
+    public void draw(Graphics2D g, float alpha) {
+        draw(g);
+    }
 }
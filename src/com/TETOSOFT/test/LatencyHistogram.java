@@ -0,0 +1,161 @@
+package com.TETOSOFT.test;
+
+/**
+    The LatencyHistogram class counts durations (in nanoseconds)
+    in log-linear buckets. Every power of two is split into 16
+    buckets, so percentiles are accurate to about 6% over the whole
+    range of a long, and recording a value is a few shifts and an
+    array increment.
+    <p>A histogram has a single writer thread. Other threads (such
+    as JMX) may read it at any time; they see approximate, not
+    torn-to-garbage, numbers.
+*/
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+    private String name;
+    private long[] counts = new long[BUCKET_COUNT];
+    private long total;
+    private long max;
+    // written last, so readers see the buckets it counts
+    private volatile long count;
+
+
+    /**
+        Creates a new, empty LatencyHistogram with the specified
+        name.
+    */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+        Adds a duration in nanoseconds. Negative durations are
+        counted as 0.
+    */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[getBucket(nanos)]++;
+        total += nanos;
+        if (nanos > max) {
+            max = nanos;
+        }
+        count++;
+    }
+
+
+    /**
+        Gets the bucket a value is counted in. Values below 16
+        each have their own bucket; above that, the bucket is the
+        position of the highest bit plus the next four bits.
+    */
+    private static int getBucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int)value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int)(value >>> shift) & (SUB_COUNT - 1);
+        return (shift + 1) * SUB_COUNT + sub;
+    }
+
+
+    /**
+        Gets the largest value counted in the specified bucket.
+    */
+    private static long getBucketLimit(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long sub = bucket % SUB_COUNT;
+        return ((SUB_COUNT + sub + 1) << shift) - 1;
+    }
+
+
+    /**
+        Gets the value (in nanoseconds) that the specified
+        fraction (0 to 1) of durations are at or below.
+    */
+    public long getPercentile(double fraction) {
+        long n = count;
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long)Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i=0; i<BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(getBucketLimit(i), max);
+            }
+        }
+        return max;
+    }
+
+
+    public long getCount() {
+        return count;
+    }
+
+
+    public double getMeanMicros() {
+        long n = count;
+        if (n == 0) {
+            return 0;
+        }
+        return total / 1000.0 / n;
+    }
+
+
+    public double getP50Micros() {
+        return getPercentile(0.5) / 1000.0;
+    }
+
+
+    public double getP99Micros() {
+        return getPercentile(0.99) / 1000.0;
+    }
+
+
+    public double getMaxMicros() {
+        return max / 1000.0;
+    }
+
+
+    /**
+        Clears all counts. If called while the writer is
+        recording, a value may be lost.
+    */
+    public void reset() {
+        count = 0;
+        for (int i=0; i<BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        total = 0;
+        max = 0;
+    }
+
+
+    public String toString() {
+        return name + ": " + count + " samples, p50 " +
+            round(getP50Micros()) + " us, p99 " +
+            round(getP99Micros()) + " us, max " +
+            round(getMaxMicros()) + " us";
+    }
+
+
+    private static double round(double micros) {
+        return Math.round(micros * 10) / 10.0;
+    }
+}
@@ -0,0 +1,20 @@
+package com.TETOSOFT.test;
+
+/**
+    Management interface of a LatencyHistogram. Times are in
+    microseconds.
+*/
+public interface LatencyHistogramMBean {
+
+    public long getCount();
+
+    public double getMeanMicros();
+
+    public double getP50Micros();
+
+    public double getP99Micros();
+
+    public double getMaxMicros();
+
+    public void reset();
+}
@@ -0,0 +1,71 @@
+package com.TETOSOFT.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+    The TripleBuffer class hands objects from one writer thread
+    to one reader thread without locking. The writer fills the
+    back buffer and publishes it; the reader always gets the most
+    recently published buffer. Neither thread ever waits for the
+    other, and a buffer is never touched by both at once.
+    <p>The three buffers are swapped, not copied: the writer's
+    back buffer and the reader's front buffer are private to each
+    thread, and the middle buffer is exchanged through a single
+    atomic int that also flags whether it holds a new frame.
+*/
+public class TripleBuffer {
+
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private Object[] buffers;
+    private AtomicInteger middle;
+    // owned by the writer thread
+    private int back;
+    // owned by the reader thread
+    private int front;
+
+    /**
+        Creates a new TripleBuffer that swaps the three specified
+        objects.
+    */
+    public TripleBuffer(Object buffer1, Object buffer2,
+        Object buffer3)
+    {
+        buffers = new Object[] { buffer1, buffer2, buffer3 };
+        front = 0;
+        middle = new AtomicInteger(1);
+        back = 2;
+    }
+
+
+    /**
+        Gets the buffer the writer may fill. Only call from the
+        writer thread.
+    */
+    public Object getBackBuffer() {
+        return buffers[back];
+    }
+
+
+    /**
+        Publishes the back buffer to the reader and gets a new
+        back buffer. Only call from the writer thread.
+    */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+
+    /**
+        Gets the most recently published buffer. The buffer stays
+        with the reader until the next call. Only call from the
+        reader thread.
+    */
+    public Object getFrontBuffer() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return buffers[front];
+    }
+}
@@ -0,0 +1,220 @@
+package com.TETOSOFT.tilegame;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.TETOSOFT.input.GameAction;
+
+/**
+ * BatchRunner plays many independent games of the same map at once,
+ * without a screen, spread over the cores of a ForkJoinPool. Every
+ * game is its own GameWorld with its own clone of the MapLoader
+ * (sharing the images), so games never touch each other's state and need no
+ * locking.
+ * <p>Each game is steered by a simple seeded bot that mostly runs
+ * right and jumps now and then, so games play out differently.
+ * <p>Settings are read from system properties:
+ * <ul>
+ * <li>tilegame.instances - number of games (default 1000)
+ * <li>tilegame.map - map number to play (default 1)
+ * <li>tilegame.ticks - updates per game (default 10000)
+ * <li>tilegame.threads - worker threads (default: all cores)
+ * <li>tilegame.seed - seed of the bots (default 1)
+ * </ul>
+ */
+public class BatchRunner 
+{
+    
+    // updates run per game before the next progress report
+    private static final int TICKS_PER_ROUND = 600;
+    private static final long UPDATE_PERIOD = 1000000000L / 120;
+    
+    private GameWorld[] worlds;
+    private Random[] bots;
+    private int startMap;
+    private long tick;
+    private ForkJoinPool pool;
+    private int chunkSize;
+    
+    public static void main(String[] args) 
+    {
+        System.setProperty("java.awt.headless", "true");
+        
+        int threads = Integer.getInteger("tilegame.threads",
+            Runtime.getRuntime().availableProcessors()).intValue();
+        BatchRunner runner = new BatchRunner(new MapLoader(null),
+            Integer.getInteger("tilegame.instances", 1000).intValue(),
+            Integer.getInteger("tilegame.map", 1).intValue(),
+            Long.getLong("tilegame.seed", 1).longValue(),
+            threads);
+        runner.run(Integer.getInteger("tilegame.ticks", 10000).intValue());
+        runner.printResults();
+        runner.shutdown();
+    }
+    
+    
+    /**
+     * Creates the specified number of games, all starting on the
+     * same map, and a pool of worker threads to run them.
+     */
+    public BatchRunner(MapLoader resources, int instances,
+        int mapNumber, long seed, int threads) 
+    {
+        startMap = mapNumber;
+        worlds = new GameWorld[instances];
+        bots = new Random[instances];
+        for (int i=0; i<instances; i++) {
+            MapLoader mapLoader = (MapLoader)resources.clone();
+            mapLoader.setPrefetching(false);
+            mapLoader.currentMap = mapNumber - 1;
+            worlds[i] = new GameWorld(mapLoader);
+            bots[i] = new Random(seed + i);
+        }
+        
+        pool = new ForkJoinPool(threads);
+        // a few chunks per thread, so threads that finish early
+        // can steal work
+        chunkSize = Math.max(1, instances / (threads * 4));
+    }
+    
+    
+    /**
+     * Gets the games being run.
+     */
+    public GameWorld[] getWorlds() {
+        return worlds;
+    }
+    
+    
+    /**
+     * Runs the specified number of updates of every game, and
+     * returns the total number of ticks per second.
+     */
+    public float run(int ticks) 
+    {
+        long startTime = System.nanoTime();
+        int done = 0;
+        while (done < ticks) {
+            int roundTicks = Math.min(TICKS_PER_ROUND, ticks - done);
+            long roundStart = System.nanoTime();
+            pool.invoke(new StepTask(0, worlds.length, roundTicks));
+            tick += roundTicks;
+            done += roundTicks;
+            
+            long roundTime = System.nanoTime() - roundStart;
+            System.out.println(done + "/" + ticks + ": " +
+                Math.round((double)roundTicks * worlds.length * 1e9 /
+                Math.max(roundTime, 1)) + " ticks/s");
+        }
+        
+        long totalTime = System.nanoTime() - startTime;
+        float ticksPerSecond = (float)((double)ticks * worlds.length *
+            1e9 / Math.max(totalTime, 1));
+        System.out.println(worlds.length + " games x " + ticks +
+            " ticks in " + totalTime / 1000000 + " ms on " +
+            pool.getParallelism() + " threads, " +
+            Math.round(ticksPerSecond) + " ticks/s");
+        return ticksPerSecond;
+    }
+    
+    
+    /**
+     * Prints how the games went.
+     */
+    public void printResults() 
+    {
+        int finished = 0;
+        int gameOvers = 0;
+        long coins = 0;
+        for (int i=0; i<worlds.length; i++) {
+            if (worlds[i].getMapLoader().currentMap != startMap) {
+                finished++;
+            }
+            if (worlds[i].isGameOver()) {
+                gameOvers++;
+            }
+            coins += worlds[i].getCollectedStars();
+        }
+        System.out.println(finished + " games reached the goal, " +
+            gameOvers + " ran out of lives, " +
+            (float)coins / worlds.length + " coins per game");
+    }
+    
+    
+    /**
+     * Stops the worker threads.
+     */
+    public void shutdown() 
+    {
+        pool.shutdown();
+    }
+    
+    
+    /**
+     * Runs the specified number of updates of one game. Games that
+     * are over are left alone.
+     */
+    private void step(int index, int ticks) 
+    {
+        GameWorld world = worlds[index];
+        Random bot = bots[index];
+        GameAction moveRight = world.getMoveRight();
+        GameAction jump = world.getJump();
+        
+        for (int i=0; i<ticks && !world.isGameOver(); i++) {
+            // run right most of the time, jump now and then
+            if (bot.nextInt(10) != 0) {
+                moveRight.press();
+            } else {
+                moveRight.release();
+            }
+            if (bot.nextInt(40) == 0) {
+                jump.press();
+            } else {
+                jump.release();
+            }
+            
+            // same step lengths as GameCore's fixed-step loop
+            long simTime = (tick + i) * UPDATE_PERIOD;
+            world.update((simTime + UPDATE_PERIOD) / 1000000 -
+                simTime / 1000000);
+        }
+    }
+    
+    
+    /**
+     * Steps a range of games, splitting it in half until it's
+     * no bigger than chunkSize.
+     */
+    private class StepTask extends RecursiveAction 
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private int from;
+        private int to;
+        private int ticks;
+        
+        public StepTask(int from, int to, int ticks) 
+        {
+            this.from = from;
+            this.to = to;
+            this.ticks = ticks;
+        }
+        
+        
+        protected void compute() 
+        {
+            if (to - from <= chunkSize) {
+                for (int i=from; i<to; i++) {
+                    step(i, ticks);
+                }
+            } else {
+                int middle = (from + to) / 2;
+                invokeAll(new StepTask(from, middle, ticks),
+                    new StepTask(middle, to, ticks));
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,127 @@
+package com.TETOSOFT.tilegame;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+    The BinaryMap class reads a map compiled by MapCompiler. The
+    file is memory-mapped, so opening it reads only the header, no
+    matter how big the map is; tiles are read straight from the
+    mapped file as chunks are loaded into a TileMap.
+    <p>The format, big-endian:
+    <pre>
+    int   MAGIC ("TGMP"), VERSION
+    int   width, height (in tiles)
+    int   entity count
+    byte  tiles[width * height], column by column: 0 for no tile,
+          1 for tile A, 2 for tile B, ...
+    entity table, row by row: byte symbol (as in text maps),
+          int tileX, int tileY
+    </pre>
+*/
+public class BinaryMap implements TileMap.ChunkSource {
+
+    public static final String EXTENSION = ".map";
+
+    static final int MAGIC = 0x54474D50; // "TGMP"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 20;
+    static final int ENTITY_SIZE = 9;
+
+    private ByteBuffer buffer;
+    private int width;
+    private int height;
+    private int entityCount;
+    private int entityOffset;
+
+
+    /**
+        Opens a compiled map file.
+    */
+    public BinaryMap(String filename) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            // the mapping stays valid after the file is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                channel.size());
+        }
+        finally {
+            file.close();
+        }
+
+        if (buffer.limit() < HEADER_SIZE ||
+            buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+        {
+            throw new IOException("Not a compiled map: " + filename);
+        }
+        width = buffer.getInt(8);
+        height = buffer.getInt(12);
+        entityCount = buffer.getInt(16);
+        entityOffset = HEADER_SIZE + width * height;
+        if (width <= 0 || height <= 0 || entityCount < 0 ||
+            buffer.limit() != entityOffset + entityCount * ENTITY_SIZE)
+        {
+            throw new IOException("Corrupt compiled map: " + filename);
+        }
+    }
+
+
+    public int getWidth() {
+        return width;
+    }
+
+
+    public int getHeight() {
+        return height;
+    }
+
+
+    /**
+        Gets the number of entities (sprites) in the map.
+    */
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+
+    /**
+        Gets the text map symbol of an entity, like 'o' for a coin.
+    */
+    public char getEntitySymbol(int i) {
+        return (char)buffer.get(entityOffset + i * ENTITY_SIZE);
+    }
+
+
+    public int getEntityX(int i) {
+        return buffer.getInt(entityOffset + i * ENTITY_SIZE + 1);
+    }
+
+
+    public int getEntityY(int i) {
+        return buffer.getInt(entityOffset + i * ENTITY_SIZE + 5);
+    }
+
+
+    /**
+        Sets the tiles of a chunk of the map from the file. Tiles
+        missing from the map's palette are left empty.
+    */
+    public void loadChunk(TileMap map, int chunkX, int chunkY) {
+        int fromX = chunkX * TileMap.CHUNK_SIZE;
+        int fromY = chunkY * TileMap.CHUNK_SIZE;
+        int toX = Math.min(fromX + TileMap.CHUNK_SIZE, width);
+        int toY = Math.min(fromY + TileMap.CHUNK_SIZE, height);
+        int paletteSize = map.getPaletteSize();
+        for (int x=fromX; x<toX; x++) {
+            int column = HEADER_SIZE + x * height;
+            for (int y=fromY; y<toY; y++) {
+                int tile = buffer.get(column + y) & 0xff;
+                if (tile != 0 && tile < paletteSize) {
+                    map.setTileIndex(x, y, tile);
+                }
+            }
+        }
+    }
+}
@@ -2,46 +2,48 @@ package com.TETOSOFT.tilegame;
 
 import java.awt.*;
 import java.awt.event.KeyEvent;
-import java.util.Iterator;
+import java.io.IOException;
 
-import com.TETOSOFT.graphics.*;
+import com.TETOSOFT.graphics.EntityStore;
 import com.TETOSOFT.input.*;
+import com.TETOSOFT.test.FrameProfiler;
 import com.TETOSOFT.test.GameCore;
-import com.TETOSOFT.tilegame.sprites.*;
+import com.TETOSOFT.test.TripleBuffer;
 
 /**
- * GameManager manages all parts of the game.
+ * GameManager manages all parts of the game. The game itself is
+ * a GameWorld; this class connects it to the screen and the
+ * keyboard.
  */
 public class GameEngine extends GameCore 
 {
     
     public static void main(String[] args) 
     {
-        new GameEngine().run();
+        GameEngine engine = new GameEngine();
+        engine.setFixedUpdateRate(
+            Integer.getInteger("tilegame.updateRate", 0).intValue());
+        engine.setTargetFrameRate(
+            Integer.getInteger("tilegame.targetFps", 60).intValue());
+        engine.setThreaded(Boolean.getBoolean("tilegame.threaded"));
+        engine.run();
     }
     
-    public static final float GRAVITY = 0.002f;
+    public static final float GRAVITY = GameWorld.GRAVITY;
     
-    private Point pointCache = new Point();
-    private TileMap map;
+    private GameWorld world;
     private MapLoader mapLoader;
     private InputManager inputManager;
     private TileMapDrawer drawer;
+    private TripleBuffer frames;
+    private InputRecording recording;
     
-    private GameAction moveLeft;
-    private GameAction moveRight;
-    private GameAction jump;
     private GameAction exit;
-    private int collectedStars=0;
-    private int numLives=6;
    
     public void init()
     {
         super.init();
         
-        // set up input manager
-        initInput();
-        
         // start resource manager
         mapLoader = new MapLoader(screen.getFullScreenWindow().getGraphicsConfiguration());
         
@@ -50,7 +52,60 @@ public class GameEngine extends GameCore
         drawer.setBackground(mapLoader.loadImage("background.jpg"));
         
         // load first map
-        map = mapLoader.loadNextMap();
+        mapLoader.setStreaming(Boolean.getBoolean("tilegame.streaming"));
+        if (System.getProperty("tilegame.levelSeed") != null) {
+            mapLoader.setLevelSeed(
+                Long.getLong("tilegame.levelSeed").longValue());
+        }
+        world = new GameWorld(mapLoader);
+        world.setScreenWidth(screen.getWidth());
+        world.setActiveMargin(Integer.getInteger("tilegame.activeMargin",
+                GameWorld.DEFAULT_ACTIVE_MARGIN).intValue());
+        if (Boolean.getBoolean("tilegame.entityStore")) {
+            world.setEntityStore(new EntityStore());
+        }
+        
+        // record the game to replay it later
+        if (System.getProperty("tilegame.record") != null) {
+            recording = new InputRecording(mapLoader.currentMap,
+                    screen.getWidth());
+            recording.recordSettings(world);
+            world.setRecording(recording);
+        }
+        
+        // time every frame, and publish the times and missed
+        // deadlines over JMX
+        setProfiler(new FrameProfiler());
+        getProfiler().registerMBeans();
+        getFramePacer().registerMBean();
+        world.setProfiler(getProfiler());
+        
+        // set up input manager
+        initInput();
+        
+        // frames handed from the simulation thread to the screen
+        if (isThreaded()) {
+            frames = new TripleBuffer(new RenderSnapshot(),
+                new RenderSnapshot(), new RenderSnapshot());
+            publishFrame();
+        }
+    }
+    
+    
+    /**
+     * Runs the game loop, then saves the recording, if any.
+     */
+    public void gameLoop() {
+        super.gameLoop();
+        
+        if (recording != null) {
+            recording.finish(world);
+            try {
+                recording.save(System.getProperty("tilegame.record"));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
     }
     
     
@@ -64,330 +119,112 @@ public class GameEngine extends GameCore
     
     
     private void initInput() {
-        moveLeft = new GameAction("moveLeft");
-        moveRight = new GameAction("moveRight");
-        jump = new GameAction("jump", GameAction.DETECT_INITAL_PRESS_ONLY);
         exit = new GameAction("exit",GameAction.DETECT_INITAL_PRESS_ONLY);
         
         inputManager = new InputManager(screen.getFullScreenWindow());
         inputManager.setCursor(InputManager.INVISIBLE_CURSOR);
         
-        inputManager.mapToKey(moveLeft, KeyEvent.VK_LEFT);
-        inputManager.mapToKey(moveRight, KeyEvent.VK_RIGHT);
-        inputManager.mapToKey(jump, KeyEvent.VK_SPACE);
+        inputManager.mapToKey(world.getMoveLeft(), KeyEvent.VK_LEFT);
+        inputManager.mapToKey(world.getMoveRight(), KeyEvent.VK_RIGHT);
+        inputManager.mapToKey(world.getJump(), KeyEvent.VK_SPACE);
         inputManager.mapToKey(exit, KeyEvent.VK_ESCAPE);
     }
     
     
-    private void checkInput(long elapsedTime) 
-    {
-        
-        if (exit.isPressed()) {
-            stop();
-        }
+    public void draw(Graphics2D g) {
+        draw(g, 1);
+    }
+    
+    
+    public void draw(Graphics2D g, float alpha) {
         
-        Player player = (Player)map.getPlayer();
-        if (player.isAlive()) 
-        {
-            float velocityX = 0;
-            if (moveLeft.isPressed()) 
-            {
-                velocityX-=player.getMaxSpeed();
-            }
-            if (moveRight.isPressed()) {
-                velocityX+=player.getMaxSpeed();
-            }
-            if (jump.isPressed()) {
-                player.jump(false);
-            }
-            player.setVelocityX(velocityX);
+        FrameProfiler profiler = getProfiler();
+        if (isThreaded()) {
+            RenderSnapshot frame = (RenderSnapshot)frames.getFrontBuffer();
+            long start = profiler.time();
+            drawer.draw(g, frame, screen.getWidth(), screen.getHeight());
+            profiler.record(FrameProfiler.TILES, start);
+            start = profiler.time();
+            drawHud(g, frame.getCollectedStars(), frame.getNumLives(),
+                    frame.getMapNumber());
+            profiler.record(FrameProfiler.HUD, start);
+        } else {
+            long start = profiler.time();
+            drawer.draw(g, world.getMap(), screen.getWidth(),
+                    screen.getHeight(), alpha);
+            profiler.record(FrameProfiler.TILES, start);
+            start = profiler.time();
+            drawHud(g, world.getCollectedStars(), world.getNumLives(),
+                    mapLoader.currentMap);
+            profiler.record(FrameProfiler.HUD, start);
         }
         
     }
     
     
-    public void draw(Graphics2D g) {
-        
-        drawer.draw(g, map, screen.getWidth(), screen.getHeight());
+    private void drawHud(Graphics2D g, int stars, int lives,
+            int mapNumber) {
         g.setColor(Color.WHITE);
         g.drawString("Press ESC for EXIT.",10.0f,20.0f);
         g.setColor(Color.GREEN);
-        g.drawString("Coins: "+collectedStars,300.0f,20.0f);
+        g.drawString("Coins: "+stars,300.0f,20.0f);
         g.setColor(Color.YELLOW);
-        g.drawString("Lives: "+(numLives),500.0f,20.0f );
+        g.drawString("Lives: "+(lives),500.0f,20.0f );
         g.setColor(Color.WHITE);
-        g.drawString("Home: "+mapLoader.currentMap,700.0f,20.0f);
-        
+        g.drawString("Home: "+mapNumber,700.0f,20.0f);
     }
     
     
     /**
-     * Gets the current map.
-     */
-    public TileMap getMap() {
-        return map;
-    }
-    
-    /**
-     * Gets the tile that a Sprites collides with. Only the
-     * Sprite's X or Y should be changed, not both. Returns null
-     * if no collision is detected.
+     * Captures the current map into the next RenderSnapshot and
+     * hands it to the render thread.
      */
-    public Point getTileCollision(Sprite sprite, float newX, float newY) 
-    {
-        float fromX = Math.min(sprite.getX(), newX);
-        float fromY = Math.min(sprite.getY(), newY);
-        float toX = Math.max(sprite.getX(), newX);
-        float toY = Math.max(sprite.getY(), newY);
-        
-        // get the tile locations
-        int fromTileX = TileMapDrawer.pixelsToTiles(fromX);
-        int fromTileY = TileMapDrawer.pixelsToTiles(fromY);
-        int toTileX = TileMapDrawer.pixelsToTiles(
-                toX + sprite.getWidth() - 1);
-        int toTileY = TileMapDrawer.pixelsToTiles(
-                toY + sprite.getHeight() - 1);
-        
-        // check each tile for a collision
-        for (int x=fromTileX; x<=toTileX; x++) {
-            for (int y=fromTileY; y<=toTileY; y++) {
-                if (x < 0 || x >= map.getWidth() ||
-                        map.getTile(x, y) != null) {
-                    // collision found, return the tile
-                    pointCache.setLocation(x, y);
-                    return pointCache;
-                }
-            }
-        }
-        
-        // no collision found
-        return null;
+    public void publishFrame() {
+        RenderSnapshot frame = (RenderSnapshot)frames.getBackBuffer();
+        frame.capture(world.getMap(), screen.getWidth(),
+                world.getCollectedStars(), world.getNumLives(),
+                mapLoader.currentMap);
+        frames.publish();
     }
     
     
     /**
-     * Checks if two Sprites collide with one another. Returns
-     * false if the two Sprites are the same. Returns false if
-     * one of the Sprites is a Creature that is not alive.
+     * Gets the current map.
      */
-    public boolean isCollision(Sprite s1, Sprite s2) {
-        // if the Sprites are the same, return false
-        if (s1 == s2) {
-            return false;
-        }
-        
-        // if one of the Sprites is a dead Creature, return false
-        if (s1 instanceof Creature && !((Creature)s1).isAlive()) {
-            return false;
-        }
-        if (s2 instanceof Creature && !((Creature)s2).isAlive()) {
-            return false;
-        }
-        
-        // get the pixel location of the Sprites
-        int s1x = Math.round(s1.getX());
-        int s1y = Math.round(s1.getY());
-        int s2x = Math.round(s2.getX());
-        int s2y = Math.round(s2.getY());
-        
-        // check if the two sprites' boundaries intersect
-        return (s1x < s2x + s2.getWidth() &&
-                s2x < s1x + s1.getWidth() &&
-                s1y < s2y + s2.getHeight() &&
-                s2y < s1y + s1.getHeight());
+    public TileMap getMap() {
+        return world.getMap();
     }
     
     
     /**
-     * Gets the Sprite that collides with the specified Sprite,
-     * or null if no Sprite collides with the specified Sprite.
+     * Gets the GameWorld being played.
      */
-    public Sprite getSpriteCollision(Sprite sprite) {
-        
-        // run through the list of Sprites
-        Iterator i = map.getSprites();
-        while (i.hasNext()) {
-            Sprite otherSprite = (Sprite)i.next();
-            if (isCollision(sprite, otherSprite)) {
-                // collision found, return the Sprite
-                return otherSprite;
-            }
-        }
-        
-        // no collision found
-        return null;
+    public GameWorld getWorld() {
+        return world;
     }
     
     
     /**
-     * Updates Animation, position, and velocity of all Sprites
-     * in the current map.
+     * Updates the GameWorld, and exits a few seconds after the
+     * player runs out of lives.
      */
     public void update(long elapsedTime) {
-        Creature player = (Creature)map.getPlayer();
-        
-        
-        // player is dead! start map over
-        if (player.getState() == Creature.STATE_DEAD) {
-            map = mapLoader.reloadMap();
-            return;
-        }
-        
-        // get keyboard/mouse input
-        checkInput(elapsedTime);
-        
-        // update player
-        updateCreature(player, elapsedTime);
-        player.update(elapsedTime);
-        
-        // update other sprites
-        Iterator i = map.getSprites();
-        while (i.hasNext()) {
-            Sprite sprite = (Sprite)i.next();
-            if (sprite instanceof Creature) {
-                Creature creature = (Creature)sprite;
-                if (creature.getState() == Creature.STATE_DEAD) {
-                    i.remove();
-                } else {
-                    updateCreature(creature, elapsedTime);
-                }
-            }
-            // normal update
-            sprite.update(elapsedTime);
-        }
-    }
-    
-    
-    /**
-     * Updates the creature, applying gravity for creatures that
-     * aren't flying, and checks collisions.
-     */
-    private void updateCreature(Creature creature,
-            long elapsedTime) {
-        
-        // apply gravity
-        if (!creature.isFlying()) {
-            creature.setVelocityY(creature.getVelocityY() +
-                    GRAVITY * elapsedTime);
-        }
-        
-        // change x
-        float dx = creature.getVelocityX();
-        float oldX = creature.getX();
-        float newX = oldX + dx * elapsedTime;
-        Point tile =
-                getTileCollision(creature, newX, creature.getY());
-        if (tile == null) {
-            creature.setX(newX);
-        } else {
-            // line up with the tile boundary
-            if (dx > 0) {
-                creature.setX(
-                        TileMapDrawer.tilesToPixels(tile.x) -
-                        creature.getWidth());
-            } else if (dx < 0) {
-                creature.setX(
-                        TileMapDrawer.tilesToPixels(tile.x + 1));
-            }
-            creature.collideHorizontal();
-        }
-        if (creature instanceof Player) {
-            checkPlayerCollision((Player)creature, false);
-        }
-        
-        // change y
-        float dy = creature.getVelocityY();
-        float oldY = creature.getY();
-        float newY = oldY + dy * elapsedTime;
-        tile = getTileCollision(creature, creature.getX(), newY);
-        if (tile == null) {
-            creature.setY(newY);
-        } else {
-            // line up with the tile boundary
-            if (dy > 0) {
-                creature.setY(
-                        TileMapDrawer.tilesToPixels(tile.y) -
-                        creature.getHeight());
-            } else if (dy < 0) {
-                creature.setY(
-                        TileMapDrawer.tilesToPixels(tile.y + 1));
-            }
-            creature.collideVertical();
-        }
-        if (creature instanceof Player) {
-            boolean canKill = (oldY < creature.getY());
-            checkPlayerCollision((Player)creature, canKill);
-        }
         
-    }
-    
-    
-    /**
-     * Checks for Player collision with other Sprites. If
-     * canKill is true, collisions with Creatures will kill
-     * them.
-     */
-    public void checkPlayerCollision(Player player,
-            boolean canKill) {
-        if (!player.isAlive()) {
-            return;
+        if (exit.isPressed()) {
+            stop();
         }
         
-        // check for player collision with other sprites
-        Sprite collisionSprite = getSpriteCollision(player);
-        if (collisionSprite instanceof PowerUp) {
-            acquirePowerUp((PowerUp)collisionSprite);
-        } else if (collisionSprite instanceof Creature) {
-            Creature badguy = (Creature)collisionSprite;
-            if (canKill) {
-                // kill the badguy and make player bounce
-                badguy.setState(Creature.STATE_DYING);
-                player.setY(badguy.getY() - player.getHeight());
-                player.jump(true);
-            } else {
-                // player dies!
-                player.setState(Creature.STATE_DYING);
-                numLives--;
-                if(numLives==0) {
-                    try {
-                        Thread.sleep(3000);
-                    } catch (InterruptedException ex) {
-                        ex.printStackTrace();
-                    }
-                    stop();
-                }
-            }
-        }
-    }
-    
-    
-    /**
-     * Gives the player the speicifed power up and removes it
-     * from the map.
-     */
-    public void acquirePowerUp(PowerUp powerUp) {
-        // remove it from the map
-        map.removeSprite(powerUp);
+        world.update(elapsedTime);
         
-        if (powerUp instanceof PowerUp.Star) {
-            // do something here, like give the player points
-            collectedStars++;
-            if(collectedStars==100) 
-            {
-                numLives++;
-                collectedStars=0;
+        if (world.isGameOver()) {
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException ex) {
+                ex.printStackTrace();
             }
-            
-        } else if (powerUp instanceof PowerUp.Music) {
-            // change the music
-            
-        } else if (powerUp instanceof PowerUp.Goal) {
-            // advance to next map      
-      
-            map = mapLoader.loadNextMap();
-            
+            stop();
         }
     }
     
       
-}
\ No newline at end of file
+}
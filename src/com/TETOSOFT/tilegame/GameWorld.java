@@ -0,0 +1,725 @@
+package com.TETOSOFT.tilegame;
+
+import java.awt.*;
+import java.util.Iterator;
+
+import com.TETOSOFT.graphics.*;
+import com.TETOSOFT.input.*;
+import com.TETOSOFT.test.FrameProfiler;
+import com.TETOSOFT.tilegame.sprites.*;
+
+/**
+ * GameWorld holds the state of one game: the current map, the
+ * player's counters, and the movement actions that steer the
+ * player. It updates the map's Sprites and checks collisions.
+ * It never touches the screen, so it can run without a display.
+ */
+public class GameWorld 
+{
+    
+    public static final float GRAVITY = 0.002f;
+    
+    /**
+     * The default number of tile columns on each side of the
+     * screen in which Sprites are updated.
+     */
+    public static final int DEFAULT_ACTIVE_MARGIN = 16;
+    
+    private TileSweep sweep = new TileSweep();
+    private TileMap map;
+    private MapLoader mapLoader;
+    private FrameProfiler profiler = FrameProfiler.DISABLED;
+    private EntityStore entities;
+    private InputRecording recording;
+    private int screenWidth = 800;
+    private int activeMargin = DEFAULT_ACTIVE_MARGIN;
+    private Sprite[] activeSprites = new Sprite[64];
+    private int activeCount;
+    
+    private GameAction moveLeft;
+    private GameAction moveRight;
+    private GameAction jump;
+    private int collectedStars=0;
+    private int numLives=6;
+    private boolean gameOver;
+    
+    /**
+     * Creates a new GameWorld and loads the next map from the
+     * specified MapLoader.
+     */
+    public GameWorld(MapLoader mapLoader)
+    {
+        this(mapLoader, mapLoader.loadNextMap());
+    }
+    
+    
+    /**
+     * Creates a new GameWorld that starts on the specified map,
+     * which should be the map last loaded by the MapLoader.
+     */
+    public GameWorld(MapLoader mapLoader, TileMap map)
+    {
+        this.mapLoader = mapLoader;
+        
+        moveLeft = new GameAction("moveLeft");
+        moveRight = new GameAction("moveRight");
+        jump = new GameAction("jump", GameAction.DETECT_INITAL_PRESS_ONLY);
+        
+        setMap(map);
+    }
+    
+    
+    public GameAction getMoveLeft() {
+        return moveLeft;
+    }
+    
+    
+    public GameAction getMoveRight() {
+        return moveRight;
+    }
+    
+    
+    public GameAction getJump() {
+        return jump;
+    }
+    
+    
+    public MapLoader getMapLoader() {
+        return mapLoader;
+    }
+    
+    
+    public int getCollectedStars() {
+        return collectedStars;
+    }
+    
+    
+    public int getNumLives() {
+        return numLives;
+    }
+    
+    
+    /**
+     * Sets the FrameProfiler that times input, physics and
+     * sprite updates. The default profiler is disabled.
+     */
+    public void setProfiler(FrameProfiler profiler) {
+        this.profiler = profiler;
+    }
+    
+    
+    /**
+     * Sets the width of the screen the world is seen on. Creatures
+     * wake up when they come within the screen, so this must be
+     * the same for a game and its replay. The default is 800.
+     */
+    public void setScreenWidth(int screenWidth) {
+        this.screenWidth = screenWidth;
+    }
+    
+    
+    public int getScreenWidth() {
+        return screenWidth;
+    }
+    
+    
+    /**
+     * Sets how many tile columns on each side of the screen
+     * Sprites are updated in. Sprites further away are frozen
+     * until the screen comes near them again, so the time spent
+     * per update depends on the screen's surroundings, not on the
+     * length of the map. A negative margin updates every Sprite.
+     * Like the screen width, this must be the same for a game and
+     * its replay.
+     */
+    public void setActiveMargin(int activeMargin) {
+        this.activeMargin = activeMargin;
+    }
+    
+    
+    public int getActiveMargin() {
+        return activeMargin;
+    }
+    
+    
+    /**
+     * Sets the EntityStore the active creatures' positions and
+     * velocities are kept in, so gravity is applied to all of them,
+     * and their moves worked out, in passes over its arrays. If null (the default), each
+     * creature keeps its own state. The game plays the same
+     * either way.
+     */
+    public void setEntityStore(EntityStore entities) {
+        if (this.entities != null) {
+            this.entities.clear();
+        }
+        this.entities = entities;
+    }
+    
+    
+    public EntityStore getEntityStore() {
+        return entities;
+    }
+    
+    
+    /**
+     * Starts recording the input of every update into the
+     * specified InputRecording, or stops recording if null.
+     */
+    public void setRecording(InputRecording recording) {
+        this.recording = recording;
+    }
+    
+    
+    /**
+     * Checks if the player has run out of lives.
+     */
+    public boolean isGameOver() {
+        return gameOver;
+    }
+    
+    
+    /**
+     * Moves the player according to the actions, and returns the
+     * actions that were pressed as InputRecording flags.
+     */
+    private int checkInput(long elapsedTime) 
+    {
+        int actions = 0;
+        
+        Player player = (Player)map.getPlayer();
+        if (player.isAlive()) 
+        {
+            float velocityX = 0;
+            if (moveLeft.isPressed()) 
+            {
+                velocityX-=player.getMaxSpeed();
+                actions |= InputRecording.MOVE_LEFT;
+            }
+            if (moveRight.isPressed()) {
+                velocityX+=player.getMaxSpeed();
+                actions |= InputRecording.MOVE_RIGHT;
+            }
+            if (jump.isPressed()) {
+                player.jump(false);
+                actions |= InputRecording.JUMP;
+            }
+            player.setVelocityX(velocityX);
+        }
+        
+        return actions;
+    }
+    
+    
+    /**
+     * Gets the current map.
+     */
+    public TileMap getMap() {
+        return map;
+    }
+    
+    
+    /**
+     * Switches to a new map. Sprite positions are saved so the
+     * first frame doesn't interpolate from the origin.
+     */
+    private void setMap(TileMap newMap) {
+        if (entities != null) {
+            entities.clear();
+        }
+        map = newMap;
+        streamMap(TileMapDrawer.getOffsetX(map, map.getPlayer().getX(),
+                screenWidth));
+        map.getPlayer().savePosition();
+        Iterator i = map.getSprites();
+        while (i.hasNext()) {
+            ((Sprite)i.next()).savePosition();
+        }
+    }
+    
+    /**
+     * Has a streamed map load the columns around the screen at
+     * the specified scrolling position.
+     */
+    private void streamMap(int offsetX) {
+        MapStreamer streamer = map.getStreamer();
+        if (streamer != null) {
+            streamer.update(offsetX, screenWidth);
+        }
+    }
+    
+    /**
+     * Checks if two Sprites collide: their hitboxes intersect
+     * and an opaque pixel of one covers an opaque pixel of the
+     * other. Returns false if the two Sprites are the same.
+     * Returns false if one of the Sprites is a Creature that is
+     * not alive.
+     */
+    public boolean isCollision(Sprite s1, Sprite s2) {
+        return overlaps(s1, s2);
+    }
+    
+    
+    /**
+     * Does the work of isCollision(), which doesn't depend on the
+     * state of the game.
+     */
+    static boolean overlaps(Sprite s1, Sprite s2) {
+        // if the Sprites are the same, return false
+        if (s1 == s2) {
+            return false;
+        }
+        
+        // if one of the Sprites is a dead Creature, return false
+        if (s1 instanceof Creature && !((Creature)s1).isAlive()) {
+            return false;
+        }
+        if (s2 instanceof Creature && !((Creature)s2).isAlive()) {
+            return false;
+        }
+        
+        // get the pixel location of the Sprites' hitboxes
+        Rectangle box1 = s1.getHitbox();
+        Rectangle box2 = s2.getHitbox();
+        int s1x = Math.round(s1.getX()) + box1.x;
+        int s1y = Math.round(s1.getY()) + box1.y;
+        int s2x = Math.round(s2.getX()) + box2.x;
+        int s2y = Math.round(s2.getY()) + box2.y;
+        
+        // check if the two hitboxes intersect
+        if (!(s1x < s2x + box2.width &&
+                s2x < s1x + box1.width &&
+                s1y < s2y + box2.height &&
+                s2y < s1y + box1.height)) {
+            return false;
+        }
+        
+        // check if opaque pixels overlap
+        CollisionMask mask1 = s1.getCollisionMask();
+        CollisionMask mask2 = s2.getCollisionMask();
+        if (mask1 == null || mask2 == null) {
+            return true;
+        }
+        return mask1.overlaps(mask2,
+                Math.round(s2.getX()) - Math.round(s1.getX()),
+                Math.round(s2.getY()) - Math.round(s1.getY()));
+    }
+    
+    
+    /**
+     * Gets the Sprite that collides with the specified Sprite,
+     * or null if no Sprite collides with the specified Sprite.
+     * Only Sprites in the cells the Sprite could touch are
+     * checked, however many Sprites the map has.
+     */
+    public Sprite getSpriteCollision(Sprite sprite) {
+        
+        // a Sprite is filed under the cell of its top-left corner,
+        // so look as far up and left as the biggest Sprite
+        SpatialHash index = map.getSpriteIndex();
+        int x = Math.round(sprite.getX());
+        int y = Math.round(sprite.getY());
+        int fromCellX = TileMapDrawer.pixelsToTiles(x - index.getMaxWidth());
+        int fromCellY = TileMapDrawer.pixelsToTiles(y - index.getMaxHeight());
+        int toCellX = TileMapDrawer.pixelsToTiles(x + sprite.getWidth());
+        int toCellY = TileMapDrawer.pixelsToTiles(y + sprite.getHeight());
+        
+        // run through the Sprites in those cells
+        for (int cellX=fromCellX; cellX<=toCellX; cellX++) {
+            for (int cellY=fromCellY; cellY<=toCellY; cellY++) {
+                int bucket = index.getBucketIndex(cellX, cellY);
+                Sprite[] sprites = index.getBucket(bucket);
+                int count = index.getBucketSize(bucket);
+                for (int i=0; i<count; i++) {
+                    if (isCollision(sprite, sprites[i])) {
+                        // collision found, return the Sprite
+                        return sprites[i];
+                    }
+                }
+            }
+        }
+        
+        // no collision found
+        return null;
+    }
+    
+    
+    /**
+     * Updates Animation, position, and velocity of all Sprites
+     * in the current map.
+     */
+    public void update(long elapsedTime) {
+        Creature player = (Creature)map.getPlayer();
+        
+        
+        // player is dead! start map over
+        if (player.getState() == Creature.STATE_DEAD) {
+            setMap(mapLoader.reloadMap());
+            if (recording != null) {
+                recording.addTick(elapsedTime, 0);
+            }
+            return;
+        }
+        
+        // where the screen was when the last frame was drawn
+        int offsetX = TileMapDrawer.getOffsetX(map, player.getX(),
+                screenWidth);
+        streamMap(offsetX);
+        
+        // get keyboard/mouse input
+        long start = profiler.time();
+        int actions = checkInput(elapsedTime);
+        if (recording != null) {
+            recording.addTick(elapsedTime, actions);
+        }
+        profiler.record(FrameProfiler.INPUT, start);
+        
+        // update player
+        start = profiler.time();
+        player.savePosition();
+        updateCreature(player, elapsedTime);
+        long physicsTime = profiler.time() - start;
+        
+        // update the other sprites near the screen; time spent in
+        // updateCreature() counts as physics, the rest as sprites
+        long spritesStart = profiler.time();
+        long spritePhysicsTime = 0;
+        player.update(elapsedTime);
+        int fromTileX = Integer.MIN_VALUE;
+        int toTileX = Integer.MAX_VALUE;
+        if (activeMargin >= 0) {
+            fromTileX = TileMapDrawer.pixelsToTiles(-offsetX) -
+                activeMargin;
+            toTileX = TileMapDrawer.pixelsToTiles(-offsetX +
+                screenWidth) + activeMargin;
+        }
+        findActiveSprites(fromTileX, toTileX);
+        if (entities != null) {
+            start = profiler.time();
+            integrateCreatures(offsetX, elapsedTime);
+            spritePhysicsTime += profiler.time() - start;
+        }
+        SortAndSweep creatures = map.getCreatures();
+        for (int i=0; i<activeCount; i++) {
+            Sprite sprite = activeSprites[i];
+            activeSprites[i] = null;
+            sprite.savePosition();
+            if (sprite instanceof Creature) {
+                Creature creature = (Creature)sprite;
+                
+                wakeUpOnScreen(creature, offsetX);
+                
+                if (creature.getState() == Creature.STATE_DEAD) {
+                    map.removeSprite(creature);
+                    if (entities != null) {
+                        entities.remove(creature);
+                    }
+                } else {
+                    if (!creature.isActive() && creature.isAlive()) {
+                        creatures.add(creature);
+                    }
+                    start = profiler.time();
+                    updateCreature(creature, elapsedTime);
+                    spritePhysicsTime += profiler.time() - start;
+                }
+            }
+            // normal update
+            sprite.update(elapsedTime);
+            map.spriteMoved(sprite);
+        }
+        
+        // creatures that walk into each other turn around
+        collideCreatures(fromTileX, toTileX);
+        profiler.recordDuration(FrameProfiler.SPRITES,
+                profiler.time() - spritesStart - spritePhysicsTime);
+        profiler.recordDuration(FrameProfiler.PHYSICS,
+                physicsTime + spritePhysicsTime);
+    }
+    
+    
+    /**
+     * Wakes up the creature when it's on screen.
+     */
+    private void wakeUpOnScreen(Creature creature, int offsetX) {
+        int screenX = Math.round(creature.getX()) + offsetX;
+        if (screenX >= 0 && screenX < screenWidth) {
+            creature.wakeUp();
+        }
+    }
+    
+    
+    /**
+     * Updates the creature, applying gravity for creatures that
+     * aren't flying, and checks collisions. Each axis is swept
+     * through the tiles, so the creature stops at the first tile
+     * in its way however far it moves in one update.
+     */
+    private void updateCreature(Creature creature,
+            long elapsedTime) {
+        
+        if (creature.getEntityStore() != null) {
+            // the entity store already applied gravity and worked
+            // out where the creature moves to
+            moveHorizontallyTo(sweep, map, creature,
+                    creature.getTargetX());
+            moveVerticallyTo(sweep, map, creature,
+                    creature.getTargetY());
+            return;
+        }
+        
+        if (!creature.isFlying()) {
+            fall(creature, elapsedTime);
+        }
+        
+        moveHorizontally(sweep, map, creature, elapsedTime);
+        if (creature instanceof Player) {
+            checkPlayerCollision((Player)creature, false);
+        }
+        
+        float oldY = creature.getY();
+        moveVertically(sweep, map, creature, elapsedTime);
+        if (creature instanceof Player) {
+            boolean canKill = (oldY < creature.getY());
+            checkPlayerCollision((Player)creature, canKill);
+        }
+        
+    }
+    
+    
+    /**
+     * Speeds up a creature's fall by gravity.
+     */
+    static void fall(Creature creature, long elapsedTime) {
+        creature.setVelocityY(creature.getVelocityY() +
+                GRAVITY * elapsedTime);
+    }
+    
+    
+    /**
+     * Moves a creature along x by its velocity, stopping it at
+     * the first tile in its way.
+     */
+    static void moveHorizontally(TileSweep sweep, TileMap map,
+            Creature creature, long elapsedTime) {
+        moveHorizontallyTo(sweep, map, creature,
+                creature.getX() + creature.getVelocityX() * elapsedTime);
+    }
+    
+    
+    /**
+     * Moves a creature along x to newX, stopping it at the first
+     * tile in its way.
+     */
+    static void moveHorizontallyTo(TileSweep sweep, TileMap map,
+            Creature creature, float newX) {
+        float oldX = creature.getX();
+        if (!sweep.sweep(map, oldX, creature.getY(), creature.getWidth(),
+                creature.getHeight(), newX - oldX, 0)) {
+            creature.setX(newX);
+        } else {
+            // line up with the side of the first tile in the way
+            if (sweep.getNormalX() < 0) {
+                creature.setX(
+                        TileMapDrawer.tilesToPixels(sweep.getTileX()) -
+                        creature.getWidth());
+            } else {
+                creature.setX(
+                        TileMapDrawer.tilesToPixels(sweep.getTileX() + 1));
+            }
+            creature.collideHorizontal();
+        }
+    }
+    
+    
+    /**
+     * Moves a creature along y by its velocity, stopping it at
+     * the first tile in its way.
+     */
+    static void moveVertically(TileSweep sweep, TileMap map,
+            Creature creature, long elapsedTime) {
+        moveVerticallyTo(sweep, map, creature,
+                creature.getY() + creature.getVelocityY() * elapsedTime);
+    }
+    
+    
+    /**
+     * Moves a creature along y to newY, stopping it at the first
+     * tile in its way.
+     */
+    static void moveVerticallyTo(TileSweep sweep, TileMap map,
+            Creature creature, float newY) {
+        float oldY = creature.getY();
+        if (!sweep.sweep(map, creature.getX(), oldY, creature.getWidth(),
+                creature.getHeight(), 0, newY - oldY)) {
+            creature.setY(newY);
+        } else {
+            // line up with the side of the first tile in the way
+            if (sweep.getNormalY() < 0) {
+                creature.setY(
+                        TileMapDrawer.tilesToPixels(sweep.getTileY()) -
+                        creature.getHeight());
+            } else {
+                creature.setY(
+                        TileMapDrawer.tilesToPixels(sweep.getTileY() + 1));
+            }
+            creature.collideVertical();
+        }
+    }
+    
+    
+    /**
+     * Keeps the entity store holding exactly the active creatures
+     * that aren't dead, then applies gravity to all of them and
+     * works out their moves at once. Creatures on screen are woken
+     * up first, so they move this update. Creatures don't affect
+     * each other until collideCreatures(), so working out every
+     * move up front gives the same result as one at a time.
+     */
+    private void integrateCreatures(int offsetX, long elapsedTime) {
+        entities.startMarking();
+        for (int i=0; i<activeCount; i++) {
+            if (activeSprites[i] instanceof Creature) {
+                Creature creature = (Creature)activeSprites[i];
+                if (creature.getState() != Creature.STATE_DEAD) {
+                    wakeUpOnScreen(creature, offsetX);
+                    entities.mark(creature,
+                            creature.isFlying() ? 0 : GRAVITY);
+                }
+            }
+        }
+        entities.removeUnmarked();
+        entities.integrate(elapsedTime);
+    }
+    
+    
+    /**
+     * Fills activeSprites with the Sprites whose top-left corner
+     * is in the specified range of tile columns, one row above or
+     * below the map at most. Sprites that fell out of the map stay
+     * frozen. The Sprites are found through the sprite index, in
+     * an order that only depends on the map's history, so replays
+     * update them in the same order.
+     */
+    private void findActiveSprites(int fromTileX, int toTileX) {
+        activeCount = 0;
+        if (fromTileX == Integer.MIN_VALUE) {
+            Iterator i = map.getSprites();
+            while (i.hasNext()) {
+                addActiveSprite((Sprite)i.next());
+            }
+            return;
+        }
+        
+        SpatialHash index = map.getSpriteIndex();
+        for (int x=fromTileX; x<=toTileX; x++) {
+            for (int y=-1; y<=map.getHeight(); y++) {
+                int bucket = index.getBucketIndex(x, y);
+                Sprite[] sprites = index.getBucket(bucket);
+                // a bucket holds several cells; only take this one
+                long cell = SpatialHash.getCell(x, y);
+                for (int j=0; j<index.getBucketSize(bucket); j++) {
+                    if (sprites[j].getCell() == cell) {
+                        addActiveSprite(sprites[j]);
+                    }
+                }
+            }
+        }
+    }
+    
+    
+    private void addActiveSprite(Sprite sprite) {
+        if (activeCount == activeSprites.length) {
+            Sprite[] newSprites = new Sprite[activeCount * 2];
+            System.arraycopy(activeSprites, 0, newSprites, 0,
+                    activeCount);
+            activeSprites = newSprites;
+        }
+        activeSprites[activeCount++] = sprite;
+    }
+    
+    
+    /**
+     * Turns around Creatures that bump into each other. Only a
+     * Creature moving towards the other one turns, so two
+     * Creatures that still overlap after turning don't turn back.
+     */
+    private void collideCreatures(int fromTileX, int toTileX) {
+        SortAndSweep creatures = map.getCreatures();
+        creatures.update(fromTileX, toTileX);
+        for (int i=0; i<creatures.getPairCount(); i++) {
+            Creature left = creatures.getPair(i, 0);
+            Creature right = creatures.getPair(i, 1);
+            if (left.getVelocityX() > 0) {
+                left.collideHorizontal();
+            }
+            if (right.getVelocityX() < 0) {
+                right.collideHorizontal();
+            }
+        }
+    }
+    
+    
+    /**
+     * Checks for Player collision with other Sprites. If
+     * canKill is true, collisions with Creatures will kill
+     * them.
+     */
+    public void checkPlayerCollision(Player player,
+            boolean canKill) {
+        if (!player.isAlive()) {
+            return;
+        }
+        
+        // check for player collision with other sprites
+        Sprite collisionSprite = getSpriteCollision(player);
+        if (collisionSprite instanceof PowerUp) {
+            acquirePowerUp((PowerUp)collisionSprite);
+        } else if (collisionSprite instanceof Creature) {
+            Creature badguy = (Creature)collisionSprite;
+            if (canKill) {
+                // kill the badguy and make player bounce
+                badguy.setState(Creature.STATE_DYING);
+                player.setY(badguy.getY() - player.getHeight());
+                player.jump(true);
+            } else {
+                // player dies!
+                player.setState(Creature.STATE_DYING);
+                numLives--;
+                if(numLives==0) {
+                    gameOver = true;
+                }
+            }
+        }
+    }
+    
+    
+    /**
+     * Gives the player the speicifed power up and removes it
+     * from the map.
+     */
+    public void acquirePowerUp(PowerUp powerUp) {
+        // remove it from the map
+        map.removeSprite(powerUp);
+        
+        if (powerUp instanceof PowerUp.Star) {
+            // do something here, like give the player points
+            collectedStars++;
+            if(collectedStars==100) 
+            {
+                numLives++;
+                collectedStars=0;
+            }
+            
+        } else if (powerUp instanceof PowerUp.Music) {
+            // change the music
+            
+        } else if (powerUp instanceof PowerUp.Goal) {
+            // advance to next map      
+      
+            setMap(mapLoader.loadNextMap());
+            
+        }
+    }
+    
+      
+}
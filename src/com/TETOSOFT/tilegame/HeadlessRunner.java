@@ -0,0 +1,317 @@
+package com.TETOSOFT.tilegame;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import com.TETOSOFT.graphics.EntityStore;
+import com.TETOSOFT.input.GameAction;
+import com.TETOSOFT.test.FramePacer;
+import com.TETOSOFT.test.FrameProfiler;
+import com.TETOSOFT.test.TripleBuffer;
+
+/**
+ * HeadlessRunner plays a GameWorld without a screen, keyboard or
+ * ScreenManager, so the game runs on machines with no display.
+ * Nobody presses any keys: the player stands still while the
+ * creatures move, and every death reloads the map, unless a bot
+ * is asked to play.
+ * <p>Settings are read from system properties:
+ * <ul>
+ * <li>tilegame.updateRate - updates per simulated second
+ *     (default 120)
+ * <li>tilegame.ticks - number of updates to run (default 100000)
+ * <li>tilegame.realTime - if true, paces updates to the update
+ *     rate instead of running as fast as possible
+ * <li>tilegame.render - if true, also draws every update into an
+ *     offscreen BufferedImage
+ * <li>tilegame.threaded - if true, frames are drawn offscreen on
+ *     a second thread from RenderSnapshots, as the game does when
+ *     it runs threaded
+ * <li>tilegame.bot - if true, the player runs right and jumps at
+ *     random, as the games of a BatchRunner do
+ * <li>tilegame.levelSeed - if set, levels made up from this seed
+ *     are played after the last map file
+ * <li>tilegame.map - number of the map to start on (default 1);
+ *     with tilegame.levelSeed, numbers after the last map file
+ *     start on a generated level
+ * </ul>
+ * Ticks per second are printed every second, and ticks per second
+ * and the time of every frame phase at the end. If drawing on the
+ * second thread fails, the error is printed and the exit status
+ * is 1.
+ */
+public class HeadlessRunner 
+{
+    
+    private static final int SCREEN_WIDTH = 800;
+    private static final int SCREEN_HEIGHT = 600;
+    
+    private GameWorld world;
+    private TileMapDrawer drawer;
+    private BufferedImage screenImage;
+    private FrameProfiler profiler;
+    private int updateRate;
+    private Random bot;
+    
+    // frames handed to the render thread, when threaded
+    private TripleBuffer frames;
+    private volatile boolean rendering;
+    private volatile Throwable renderError;
+    private int framesDrawn;
+    
+    public static void main(String[] args) 
+    {
+        System.setProperty("java.awt.headless", "true");
+        
+        HeadlessRunner runner = new HeadlessRunner(
+            Integer.getInteger("tilegame.updateRate", 120).intValue(),
+            Boolean.getBoolean("tilegame.render"));
+        runner.getWorld().setActiveMargin(
+            Integer.getInteger("tilegame.activeMargin",
+                GameWorld.DEFAULT_ACTIVE_MARGIN).intValue());
+        if (Boolean.getBoolean("tilegame.entityStore")) {
+            runner.getWorld().setEntityStore(new EntityStore());
+        }
+        if (Boolean.getBoolean("tilegame.threaded")) {
+            runner.setThreaded(true);
+        }
+        if (Boolean.getBoolean("tilegame.bot")) {
+            runner.setBot(new Random(
+                Long.getLong("tilegame.seed", 1).longValue()));
+        }
+        runner.run(
+            Long.getLong("tilegame.ticks", 100000).longValue(),
+            Boolean.getBoolean("tilegame.realTime"));
+        if (!runner.isRenderOk()) {
+            System.exit(1);
+        }
+    }
+    
+    
+    /**
+     * Creates a new HeadlessRunner and loads the first map. If
+     * render is true, every update is also drawn offscreen.
+     */
+    public HeadlessRunner(int updateRate, boolean render) 
+    {
+        this.updateRate = updateRate;
+        
+        MapLoader mapLoader = new MapLoader(null);
+        mapLoader.setPrefetching(false);
+        mapLoader.setStreaming(Boolean.getBoolean("tilegame.streaming"));
+        if (System.getProperty("tilegame.levelSeed") != null) {
+            mapLoader.setLevelSeed(
+                Long.getLong("tilegame.levelSeed").longValue());
+        }
+        mapLoader.currentMap =
+            Integer.getInteger("tilegame.map", 1).intValue() - 1;
+        world = new GameWorld(mapLoader);
+        profiler = new FrameProfiler();
+        world.setProfiler(profiler);
+        
+        if (render) {
+            drawer = new TileMapDrawer();
+            drawer.setBackground(mapLoader.loadImage("background.jpg"));
+            screenImage = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT,
+                BufferedImage.TYPE_INT_RGB);
+        }
+    }
+    
+    
+    /**
+     * Sets whether frames are drawn on a second thread, from
+     * RenderSnapshots handed over after every update, instead of
+     * right after each update. Only has an effect if frames are
+     * drawn at all.
+     */
+    public void setThreaded(boolean threaded) 
+    {
+        if (threaded && drawer != null) {
+            frames = new TripleBuffer(new RenderSnapshot(),
+                new RenderSnapshot(), new RenderSnapshot());
+        } else {
+            frames = null;
+        }
+    }
+    
+    
+    /**
+     * Sets the Random that steers the player, or null to leave
+     * the player standing still.
+     */
+    public void setBot(Random bot) 
+    {
+        this.bot = bot;
+    }
+    
+    
+    /**
+     * Checks that no frame failed to draw on the render thread.
+     */
+    public boolean isRenderOk() 
+    {
+        return renderError == null;
+    }
+    
+    
+    /**
+     * Gets the GameWorld being run.
+     */
+    public GameWorld getWorld() {
+        return world;
+    }
+    
+    
+    /**
+     * Gets the FrameProfiler that times the phases of each update.
+     */
+    public FrameProfiler getProfiler() {
+        return profiler;
+    }
+    
+    
+    /**
+     * Runs the specified number of updates and returns the
+     * average number of ticks per second. If realTime is false,
+     * updates run back to back as fast as possible.
+     */
+    public float run(long ticks, boolean realTime) 
+    {
+        FramePacer pacer = new FramePacer(realTime ? updateRate : 0);
+        long period = 1000000000L / updateRate;
+        long simTime = 0;
+        
+        Thread renderThread = null;
+        if (frames != null) {
+            publishFrame();
+            renderThread = startRenderThread();
+        }
+        
+        long startTime = System.nanoTime();
+        long reportTime = startTime;
+        long reportTicks = 0;
+        
+        for (long tick=1; tick<=ticks; tick++) {
+            if (bot != null) {
+                steer();
+            }
+            
+            // same step lengths as GameCore's fixed-step loop
+            long stepTime = (simTime + period) / 1000000 -
+                simTime / 1000000;
+            simTime += period;
+            world.update(stepTime);
+            
+            if (frames != null) {
+                publishFrame();
+            }
+            else if (screenImage != null) {
+                long start = profiler.time();
+                Graphics2D g = screenImage.createGraphics();
+                drawer.draw(g, world.getMap(), SCREEN_WIDTH, SCREEN_HEIGHT);
+                g.dispose();
+                profiler.record(FrameProfiler.TILES, start);
+            }
+            
+            pacer.sync();
+            
+            long now = System.nanoTime();
+            if (now - reportTime >= 1000000000L) {
+                System.out.println((tick - reportTicks) * 1000000000L /
+                    (now - reportTime) + " ticks/s");
+                reportTime = now;
+                reportTicks = tick;
+            }
+        }
+        
+        long totalTime = System.nanoTime() - startTime;
+        float ticksPerSecond = ticks * 1e9f / Math.max(totalTime, 1);
+        System.out.println(ticks + " ticks in " + totalTime / 1000000 +
+            " ms, " + Math.round(ticksPerSecond) + " ticks/s average");
+        
+        if (renderThread != null) {
+            rendering = false;
+            try {
+                renderThread.join();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.println(framesDrawn + " frames drawn on the " +
+                "render thread");
+            if (renderError != null) {
+                System.out.println("Drawing failed:");
+                renderError.printStackTrace(System.out);
+            }
+        }
+        System.out.print(profiler);
+        return ticksPerSecond;
+    }
+    
+    
+    /**
+     * Runs right most of the time, and jumps now and then.
+     */
+    private void steer() 
+    {
+        GameAction moveRight = world.getMoveRight();
+        GameAction jump = world.getJump();
+        if (bot.nextInt(10) != 0) {
+            moveRight.press();
+        } else {
+            moveRight.release();
+        }
+        if (bot.nextInt(40) == 0) {
+            jump.press();
+        } else {
+            jump.release();
+        }
+    }
+    
+    
+    /**
+     * Captures the current map into the next RenderSnapshot and
+     * hands it to the render thread.
+     */
+    private void publishFrame() 
+    {
+        RenderSnapshot frame = (RenderSnapshot)frames.getBackBuffer();
+        frame.capture(world.getMap(), SCREEN_WIDTH,
+            world.getCollectedStars(), world.getNumLives(), 0);
+        frames.publish();
+    }
+    
+    
+    /**
+     * Starts a thread that draws the latest RenderSnapshot over
+     * and over until rendering is set to false, or drawing fails.
+     */
+    private Thread startRenderThread() 
+    {
+        rendering = true;
+        Thread thread = new Thread("Render") {
+            public void run() {
+                Graphics2D g = screenImage.createGraphics();
+                try {
+                    while (rendering) {
+                        RenderSnapshot frame =
+                            (RenderSnapshot)frames.getFrontBuffer();
+                        drawer.draw(g, frame, SCREEN_WIDTH,
+                            SCREEN_HEIGHT);
+                        framesDrawn++;
+                    }
+                }
+                catch (Throwable ex) {
+                    renderError = ex;
+                }
+                finally {
+                    g.dispose();
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+    
+}
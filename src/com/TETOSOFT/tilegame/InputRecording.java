@@ -0,0 +1,240 @@
+package com.TETOSOFT.tilegame;
+
+import java.io.*;
+
+/**
+    The InputRecording class holds the input a GameWorld saw on
+    every update: the elapsed time and whether moveLeft, moveRight
+    and jump were pressed. Together with the starting map, the
+    screen width and the settings that change how the game plays
+    (the active margin, streaming and the level seed), that is
+    enough to play the game again exactly.
+    <p>When recording ends, the final state of the world is stored
+    as well, so a replay can check it got the same result.
+*/
+public class InputRecording {
+
+    public static final int MOVE_LEFT = 1;
+    public static final int MOVE_RIGHT = 2;
+    public static final int JUMP = 4;
+
+    private static final int MAGIC = 0x54474952; // "TGIR"
+    private static final int VERSION = 2;
+
+    private int mapNumber;
+    private int screenWidth;
+    private int activeMargin = GameWorld.DEFAULT_ACTIVE_MARGIN;
+    private boolean streaming;
+    private boolean generating;
+    private long levelSeed;
+    private int tickCount;
+    private int[] elapsedTimes = new int[1024];
+    private byte[] actions = new byte[1024];
+
+    // final state, set by finish()
+    private boolean finished;
+    private float finalX;
+    private float finalY;
+    private int finalStars;
+    private int finalLives;
+    private int finalMapNumber;
+
+
+    /**
+        Creates a new, empty InputRecording of a game that starts
+        on the specified map.
+    */
+    public InputRecording(int mapNumber, int screenWidth) {
+        this.mapNumber = mapNumber;
+        this.screenWidth = screenWidth;
+    }
+
+
+    /**
+        Stores the settings of the specified world, and of its
+        MapLoader, that change how the game plays. A replay must
+        use the same ones.
+    */
+    public void recordSettings(GameWorld world) {
+        activeMargin = world.getActiveMargin();
+        MapLoader mapLoader = world.getMapLoader();
+        streaming = mapLoader.isStreaming();
+        generating = mapLoader.isGenerating();
+        levelSeed = mapLoader.getLevelSeed();
+    }
+
+
+    /**
+        Adds one update. The actions are a combination of
+        MOVE_LEFT, MOVE_RIGHT and JUMP.
+    */
+    public void addTick(long elapsedTime, int tickActions) {
+        if (tickCount == actions.length) {
+            int[] newTimes = new int[tickCount * 2];
+            byte[] newActions = new byte[tickCount * 2];
+            System.arraycopy(elapsedTimes, 0, newTimes, 0, tickCount);
+            System.arraycopy(actions, 0, newActions, 0, tickCount);
+            elapsedTimes = newTimes;
+            actions = newActions;
+        }
+        elapsedTimes[tickCount] = (int)elapsedTime;
+        actions[tickCount] = (byte)tickActions;
+        tickCount++;
+    }
+
+
+    /**
+        Stores the final state of the specified world.
+    */
+    public void finish(GameWorld world) {
+        finished = true;
+        finalX = world.getMap().getPlayer().getX();
+        finalY = world.getMap().getPlayer().getY();
+        finalStars = world.getCollectedStars();
+        finalLives = world.getNumLives();
+        finalMapNumber = world.getMapLoader().currentMap;
+    }
+
+
+    /**
+        Checks if the specified world is in the final state
+        stored by finish(). Always true if finish() wasn't called.
+    */
+    public boolean matches(GameWorld world) {
+        if (!finished) {
+            return true;
+        }
+        return finalX == world.getMap().getPlayer().getX() &&
+            finalY == world.getMap().getPlayer().getY() &&
+            finalStars == world.getCollectedStars() &&
+            finalLives == world.getNumLives() &&
+            finalMapNumber == world.getMapLoader().currentMap;
+    }
+
+
+    public int getMapNumber() {
+        return mapNumber;
+    }
+
+
+    public int getScreenWidth() {
+        return screenWidth;
+    }
+
+
+    public int getActiveMargin() {
+        return activeMargin;
+    }
+
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+
+    /**
+        Checks if generated levels were played after the last map
+        file, from the seed getLevelSeed().
+    */
+    public boolean isGenerating() {
+        return generating;
+    }
+
+
+    public long getLevelSeed() {
+        return levelSeed;
+    }
+
+
+    public int getTickCount() {
+        return tickCount;
+    }
+
+
+    public long getElapsedTime(int tick) {
+        return elapsedTimes[tick];
+    }
+
+
+    public int getActions(int tick) {
+        return actions[tick];
+    }
+
+
+    /**
+        Writes this recording to the specified file.
+    */
+    public void save(String filename) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(filename)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mapNumber);
+            out.writeInt(screenWidth);
+            out.writeInt(activeMargin);
+            out.writeBoolean(streaming);
+            out.writeBoolean(generating);
+            out.writeLong(levelSeed);
+            out.writeBoolean(finished);
+            out.writeFloat(finalX);
+            out.writeFloat(finalY);
+            out.writeInt(finalStars);
+            out.writeInt(finalLives);
+            out.writeInt(finalMapNumber);
+            out.writeInt(tickCount);
+            for (int i=0; i<tickCount; i++) {
+                out.writeInt(elapsedTimes[i]);
+                out.writeByte(actions[i]);
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+
+    /**
+        Reads a recording from the specified file. Recordings
+        saved before the settings were stored are read with the
+        default settings, which they were made with.
+    */
+    public static InputRecording load(String filename)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(filename)));
+        try {
+            int version = 0;
+            if (in.readInt() == MAGIC) {
+                version = in.readInt();
+            }
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Not an input recording: " +
+                    filename);
+            }
+            InputRecording recording =
+                new InputRecording(in.readInt(), in.readInt());
+            if (version >= 2) {
+                recording.activeMargin = in.readInt();
+                recording.streaming = in.readBoolean();
+                recording.generating = in.readBoolean();
+                recording.levelSeed = in.readLong();
+            }
+            recording.finished = in.readBoolean();
+            recording.finalX = in.readFloat();
+            recording.finalY = in.readFloat();
+            recording.finalStars = in.readInt();
+            recording.finalLives = in.readInt();
+            recording.finalMapNumber = in.readInt();
+            int ticks = in.readInt();
+            for (int i=0; i<ticks; i++) {
+                recording.addTick(in.readInt(), in.readByte());
+            }
+            return recording;
+        }
+        finally {
+            in.close();
+        }
+    }
+}
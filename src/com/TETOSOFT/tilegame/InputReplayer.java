@@ -0,0 +1,105 @@
+package com.TETOSOFT.tilegame;
+
+import java.io.IOException;
+
+import com.TETOSOFT.input.GameAction;
+
+/**
+ * InputReplayer plays an InputRecording back, without a screen and
+ * as fast as the CPU allows. Each recorded update presses the same
+ * GameActions the player pressed, and is given the same elapsed
+ * time, so the game plays out exactly as it did when recorded.
+ * <p>Run it with the recording files to replay. For each one, the
+ * number of ticks per second is printed, and whether the game
+ * ended in the recorded final state.
+ */
+public class InputReplayer 
+{
+    
+    private MapLoader mapLoader;
+    
+    public static void main(String[] args) throws IOException 
+    {
+        System.setProperty("java.awt.headless", "true");
+        
+        MapLoader mapLoader = new MapLoader(null);
+        mapLoader.setPrefetching(false);
+        InputReplayer replayer = new InputReplayer(mapLoader);
+        boolean allMatch = true;
+        for (int i=0; i<args.length; i++) {
+            InputRecording recording = InputRecording.load(args[i]);
+            
+            long startTime = System.nanoTime();
+            GameWorld world = replayer.replay(recording);
+            long totalTime = System.nanoTime() - startTime;
+            
+            boolean matches = recording.matches(world);
+            allMatch &= matches;
+            System.out.println(args[i] + ": " + recording.getTickCount() +
+                " ticks in " + totalTime / 1000000 + " ms, " +
+                Math.round(recording.getTickCount() * 1e9 /
+                Math.max(totalTime, 1)) + " ticks/s, " +
+                (matches ? "final state matches" : "FINAL STATE DIFFERS"));
+        }
+        if (!allMatch) {
+            System.exit(1);
+        }
+    }
+    
+    
+    /**
+     * Creates a new InputReplayer that loads maps with the
+     * specified MapLoader.
+     */
+    public InputReplayer(MapLoader mapLoader) 
+    {
+        this.mapLoader = mapLoader;
+    }
+    
+    
+    /**
+     * Plays the specified recording from the start, with the
+     * settings it was recorded with, and returns the world in the
+     * state it ended in.
+     */
+    public GameWorld replay(InputRecording recording) 
+    {
+        mapLoader.setStreaming(recording.isStreaming());
+        if (recording.isGenerating()) {
+            mapLoader.setLevelSeed(recording.getLevelSeed());
+        } else {
+            mapLoader.clearLevelSeed();
+        }
+        mapLoader.currentMap = recording.getMapNumber() - 1;
+        GameWorld world = new GameWorld(mapLoader);
+        world.setScreenWidth(recording.getScreenWidth());
+        world.setActiveMargin(recording.getActiveMargin());
+        
+        GameAction moveLeft = world.getMoveLeft();
+        GameAction moveRight = world.getMoveRight();
+        GameAction jump = world.getJump();
+        
+        for (int tick=0; tick<recording.getTickCount(); tick++) {
+            int actions = recording.getActions(tick);
+            setPressed(moveLeft, (actions & InputRecording.MOVE_LEFT) != 0);
+            setPressed(moveRight, (actions & InputRecording.MOVE_RIGHT) != 0);
+            setPressed(jump, (actions & InputRecording.JUMP) != 0);
+            world.update(recording.getElapsedTime(tick));
+        }
+        return world;
+    }
+    
+    
+    /**
+     * Sets an action so its next isPressed() returns the
+     * specified value.
+     */
+    private static void setPressed(GameAction action, boolean pressed) 
+    {
+        action.reset();
+        if (pressed) {
+            action.press();
+        }
+    }
+    
+}
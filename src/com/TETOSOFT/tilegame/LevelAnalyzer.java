@@ -0,0 +1,442 @@
+package com.TETOSOFT.tilegame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.TETOSOFT.graphics.Sprite;
+import com.TETOSOFT.tilegame.sprites.*;
+
+/**
+ * LevelAnalyzer checks, without a screen, that the goal of a map
+ * can be reached and that every coin can be collected. It searches
+ * everything the player can do, breadth first, moving the player
+ * with the same code GameWorld uses: gravity, Player.jump() and the
+ * swept tile collisions.
+ * <p>A state of the search is the player's position, vertical
+ * velocity, whether it's on the ground and which way it faces. From
+ * each state, the player runs left, right or stands still for
+ * STEP_TICKS updates, jumping at the start if it can. States that
+ * round to the same few pixels and the same speed count as one, so
+ * the search ends. Each level of the search is simulated in
+ * parallel on a ForkJoinPool, and the new states are checked
+ * against a concurrent set of the states seen so far.
+ * <p>Creatures are left out: they move, and the player can jump on
+ * them, so they don't make a part of the map unreachable.
+ * <p>Usage:
+ * <pre>
+ * java com.TETOSOFT.tilegame.LevelAnalyzer [maps/map1.txt ...]
+ * </pre>
+ * Without arguments, every map in maps/ is analyzed. The exit code
+ * is 1 if a goal or a coin can't be reached. The number of worker
+ * threads is read from the tilegame.threads system property
+ * (default: all cores).
+ */
+public class LevelAnalyzer
+{
+
+    /**
+     * Length of one update, in milliseconds (about 120 updates per
+     * second).
+     */
+    public static final long TICK = 8;
+
+    /**
+     * Number of updates an action is held for.
+     */
+    public static final int STEP_TICKS = 4;
+
+    // left, none, right; each without and with a jump
+    private static final int ACTIONS = 6;
+    // states closer than this many pixels count as one
+    private static final int GRID = 4;
+    // lowest y kept, well above the highest jump
+    private static final int MIN_Y = -1024;
+
+    private TileMap map;
+    private Player host;
+    private int fallY;
+    private ForkJoinPool pool;
+    private int chunkSize = 64;
+
+    private ConcurrentHashMap<Long, State> visited;
+    // the power ups the player can touch
+    private ConcurrentHashMap<Sprite, Boolean> touched;
+    // 1 for each tile the player can cover
+    private AtomicIntegerArray reachableTiles;
+    private int goalStep;
+    private int stateCount;
+
+    public static void main(String[] args) throws IOException
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        ArrayList<String> files = new ArrayList<String>();
+        for (int i=0; i<args.length; i++) {
+            files.add(args[i]);
+        }
+        for (int i=1; args.length == 0 &&
+            new File("maps/map" + i + ".txt").exists(); i++)
+        {
+            files.add("maps/map" + i + ".txt");
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Integer.getInteger(
+            "tilegame.threads",
+            Runtime.getRuntime().availableProcessors()).intValue());
+        MapLoader mapLoader = new MapLoader(null);
+        boolean passed = true;
+        for (int i=0; i<files.size(); i++) {
+            String file = files.get(i);
+            LevelAnalyzer analyzer = new LevelAnalyzer(
+                mapLoader.loadMap(file), pool);
+            long start = System.nanoTime();
+            analyzer.analyze();
+            long time = (System.nanoTime() - start) / 1000000;
+            System.out.println(file + ": " + analyzer.stateCount +
+                " states in " + time + " ms on " +
+                pool.getParallelism() + " threads");
+            passed &= analyzer.printResults();
+        }
+        pool.shutdown();
+        System.exit(passed ? 0 : 1);
+    }
+
+
+    /**
+     * Creates a LevelAnalyzer of the specified map, which is only
+     * read, never changed. The search runs on the specified pool.
+     */
+    public LevelAnalyzer(TileMap map, ForkJoinPool pool)
+    {
+        this.map = map;
+        this.pool = pool;
+        host = (Player)map.getPlayer();
+        fallY = TileMapDrawer.tilesToPixels(map.getHeight());
+    }
+
+
+    /**
+     * Searches every state the player can get to from its start.
+     */
+    public void analyze()
+    {
+        visited = new ConcurrentHashMap<Long, State>();
+        touched = new ConcurrentHashMap<Sprite, Boolean>();
+        reachableTiles = new AtomicIntegerArray(
+            map.getWidth() * map.getHeight());
+        goalStep = -1;
+
+        State start = new State(host.getX(), host.getY(),
+            host.getVelocityY(), host.isOnGround(), false);
+        visited.put(start.key, start);
+        State[] frontier = new State[] {start};
+
+        for (int step=1; frontier.length > 0; step++) {
+            State[] next = new State[frontier.length * ACTIONS];
+            pool.invoke(new StepTask(frontier, next, 0,
+                frontier.length));
+
+            // keep the first new state of each key, in order, so
+            // the search goes the same way every time
+            ArrayList<State> added = new ArrayList<State>();
+            for (int i=0; i<next.length; i++) {
+                State state = next[i];
+                if (state == null) {
+                    continue;
+                }
+                if (state.atGoal) {
+                    if (goalStep < 0) {
+                        goalStep = step;
+                    }
+                }
+                else if (visited.putIfAbsent(state.key, state) == null)
+                {
+                    added.add(state);
+                }
+            }
+            frontier = added.toArray(new State[added.size()]);
+        }
+        stateCount = visited.size();
+    }
+
+
+    /**
+     * Gets the fastest time to the goal in milliseconds, or -1 if
+     * it can't be reached.
+     */
+    public long getGoalTime()
+    {
+        return (goalStep < 0) ? -1 : goalStep * STEP_TICKS * TICK;
+    }
+
+
+    /**
+     * Checks if the player can cover any part of the specified
+     * tile.
+     */
+    public boolean isReachable(int tileX, int tileY)
+    {
+        return reachableTiles.get(tileX * map.getHeight() + tileY) != 0;
+    }
+
+
+    /**
+     * Checks if the player can touch the specified power up.
+     */
+    public boolean isReachable(Sprite powerUp)
+    {
+        return touched.containsKey(powerUp);
+    }
+
+
+    /**
+     * Prints whether the goal and the coins can be reached, and
+     * returns true if all of them can.
+     */
+    public boolean printResults()
+    {
+        int tiles = 0;
+        for (int i=0; i<reachableTiles.length(); i++) {
+            tiles += reachableTiles.get(i);
+        }
+
+        boolean passed = true;
+        int coins = 0;
+        int reachableCoins = 0;
+        boolean hasGoal = false;
+        Iterator i = map.getSprites();
+        while (i.hasNext()) {
+            Sprite sprite = (Sprite)i.next();
+            if (sprite instanceof PowerUp.Goal) {
+                hasGoal = true;
+            }
+            else if (sprite instanceof PowerUp.Star) {
+                coins++;
+                if (isReachable(sprite)) {
+                    reachableCoins++;
+                }
+                else {
+                    System.out.println("  unreachable coin at tile " +
+                        TileMapDrawer.pixelsToTiles(sprite.getX()) +
+                        ", " + TileMapDrawer.pixelsToTiles(
+                        sprite.getY()));
+                    passed = false;
+                }
+            }
+        }
+
+        System.out.println("  " + tiles + " of " +
+            reachableTiles.length() + " tiles reachable, " +
+            reachableCoins + " of " + coins + " coins reachable");
+        if (!hasGoal) {
+            System.out.println("  no goal");
+            passed = false;
+        }
+        else if (goalStep < 0) {
+            System.out.println("  goal unreachable");
+            passed = false;
+        }
+        else {
+            System.out.println("  goal reachable in " + getGoalTime() +
+                " ms");
+        }
+        return passed;
+    }
+
+
+    /**
+     * Moves a copy of the player from a state for one step of the
+     * specified action. Returns the state it gets to, or null if
+     * it falls out of the map.
+     */
+    private State move(Player player, TileSweep sweep, State from,
+        int action)
+    {
+        // face the same way, then take up the state
+        player.setVelocityX(from.facingLeft ? -1 : 1);
+        player.update(0);
+        player.setX(from.x);
+        player.setY(from.y);
+        player.setVelocityY(from.dy);
+        player.setOnGround(from.onGround);
+
+        float velocityX = (action % 3 - 1) * player.getMaxSpeed();
+        boolean jump = (action >= 3);
+        for (int tick=0; tick<STEP_TICKS; tick++) {
+            // as in GameWorld.checkInput() and updateCreature()
+            if (jump && tick == 0) {
+                player.jump(false);
+            }
+            player.setVelocityX(velocityX);
+            GameWorld.fall(player, TICK);
+            GameWorld.moveHorizontally(sweep, map, player, TICK);
+            boolean atGoal = touch(player);
+            GameWorld.moveVertically(sweep, map, player, TICK);
+            atGoal |= touch(player);
+            player.update(TICK);
+
+            if (atGoal) {
+                State state = new State(player.getX(), player.getY(),
+                    0, false, false);
+                state.atGoal = true;
+                return state;
+            }
+            if (player.getY() >= fallY) {
+                return null;
+            }
+        }
+
+        return new State(player.getX(), player.getY(),
+            player.getVelocityY(), player.isOnGround(),
+            player.getVelocityX() < 0 ||
+            (player.getVelocityX() == 0 && from.facingLeft));
+    }
+
+
+    /**
+     * Marks the tiles the player covers and the power ups it
+     * touches. Returns true if it touches the goal.
+     */
+    private boolean touch(Player player)
+    {
+        int x = Math.round(player.getX());
+        int y = Math.round(player.getY());
+        int fromTileX = Math.max(TileMapDrawer.pixelsToTiles(x), 0);
+        int fromTileY = Math.max(TileMapDrawer.pixelsToTiles(y), 0);
+        int toTileX = Math.min(TileMapDrawer.pixelsToTiles(
+            x + player.getWidth() - 1), map.getWidth() - 1);
+        int toTileY = Math.min(TileMapDrawer.pixelsToTiles(
+            y + player.getHeight() - 1), map.getHeight() - 1);
+        for (int tileX=fromTileX; tileX<=toTileX; tileX++) {
+            for (int tileY=fromTileY; tileY<=toTileY; tileY++) {
+                int index = tileX * map.getHeight() + tileY;
+                if (reachableTiles.get(index) == 0) {
+                    reachableTiles.set(index, 1);
+                }
+            }
+        }
+
+        // the same cells GameWorld.getSpriteCollision() looks in
+        boolean atGoal = false;
+        SpatialHash index = map.getSpriteIndex();
+        int fromCellX = TileMapDrawer.pixelsToTiles(x - index.getMaxWidth());
+        int fromCellY = TileMapDrawer.pixelsToTiles(y - index.getMaxHeight());
+        int toCellX = TileMapDrawer.pixelsToTiles(x + player.getWidth());
+        int toCellY = TileMapDrawer.pixelsToTiles(y + player.getHeight());
+        for (int cellX=fromCellX; cellX<=toCellX; cellX++) {
+            for (int cellY=fromCellY; cellY<=toCellY; cellY++) {
+                int bucket = index.getBucketIndex(cellX, cellY);
+                Sprite[] sprites = index.getBucket(bucket);
+                int count = index.getBucketSize(bucket);
+                for (int i=0; i<count; i++) {
+                    Sprite sprite = sprites[i];
+                    if (sprite instanceof PowerUp &&
+                        GameWorld.overlaps(player, sprite))
+                    {
+                        touched.putIfAbsent(sprite, Boolean.TRUE);
+                        atGoal |= (sprite instanceof PowerUp.Goal);
+                    }
+                }
+            }
+        }
+        return atGoal;
+    }
+
+
+    /**
+     * Where the player is and how it's moving.
+     */
+    private static class State
+    {
+        float x;
+        float y;
+        float dy;
+        boolean onGround;
+        boolean facingLeft;
+        boolean atGoal;
+        // the rounded state, which states that count as one share
+        long key;
+
+        State(float x, float y, float dy, boolean onGround,
+            boolean facingLeft)
+        {
+            this.x = x;
+            this.y = y;
+            this.dy = dy;
+            this.onGround = onGround;
+            this.facingLeft = facingLeft;
+
+            long gridX = Math.round(x) / GRID;
+            long gridY = (Math.max(Math.round(y), MIN_Y) - MIN_Y) / GRID;
+            long gridDy = Math.max(0, Math.min(Math.round(dy * 50) + 512,
+                1023));
+            key = (gridX << 24) | (gridY << 12) | (gridDy << 2) |
+                (onGround ? 2 : 0) | (facingLeft ? 1 : 0);
+        }
+    }
+
+
+    /**
+     * Moves the player from a range of states of the frontier with
+     * every action, splitting the range in half until it's no
+     * bigger than chunkSize. The state after action a from
+     * frontier[i] goes to next[i * ACTIONS + a], or null if it
+     * was seen before.
+     */
+    private class StepTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private State[] frontier;
+        private State[] next;
+        private int from;
+        private int to;
+
+        public StepTask(State[] frontier, State[] next, int from,
+            int to)
+        {
+            this.frontier = frontier;
+            this.next = next;
+            this.from = from;
+            this.to = to;
+        }
+
+
+        protected void compute()
+        {
+            if (to - from <= chunkSize) {
+                Player player = (Player)host.clone();
+                TileSweep sweep = new TileSweep();
+                for (int i=from; i<to; i++) {
+                    State state = frontier[i];
+                    for (int action=0; action<ACTIONS; action++) {
+                        // jumping only makes a difference on the
+                        // ground
+                        if (action >= 3 && !state.onGround) {
+                            break;
+                        }
+                        State moved = move(player, sweep, state,
+                            action);
+                        if (moved != null && (moved.atGoal ||
+                            !visited.containsKey(moved.key)))
+                        {
+                            next[i * ACTIONS + action] = moved;
+                        }
+                    }
+                }
+            }
+            else {
+                int middle = (from + to) / 2;
+                invokeAll(new StepTask(frontier, next, from, middle),
+                    new StepTask(frontier, next, middle, to));
+            }
+        }
+    }
+
+}
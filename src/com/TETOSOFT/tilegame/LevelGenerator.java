@@ -0,0 +1,216 @@
+package com.TETOSOFT.tilegame;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+    The LevelGenerator class makes up a level from a seed, in the
+    symbols of the text maps, for a MapStreamer to load. The level
+    is built from segments of SEGMENT_WIDTH columns, each one made
+    from the seed and its own number alone, so any part of the level
+    can be made again in the same way, in any order.
+    <p>Segments are made on a background thread, a few ahead of the
+    last one asked for. If a segment isn't ready when it's needed
+    (at the start of a level, or when going back), it is made on
+    the spot; that takes microseconds, so the game loop never waits
+    for the background thread.
+*/
+public class LevelGenerator implements MapColumnSource {
+
+    public static final int HEIGHT = 15;
+    public static final int SEGMENT_WIDTH = 32;
+    public static final int SEGMENT_COUNT = 2048;
+
+    // segments made ahead of the last one asked for
+    private static final int AHEAD = 4;
+    // segments kept; older ones are made again if needed
+    private static final int CACHED = 16;
+    // rows of ground where segments meet
+    private static final int BASE_GROUND = 2;
+    private static final int MAX_GROUND = 5;
+
+    // one background thread shared by all generators
+    private static final ExecutorService worker =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "Level generator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private long seed;
+    private char[][][] segments = new char[CACHED][][];
+    private int[] segmentNumbers = new int[CACHED];
+    private int requestedTo;
+    private int madeOnDemand;
+
+
+    /**
+        Creates a generator of the level with the specified seed.
+    */
+    public LevelGenerator(long seed) {
+        this.seed = seed;
+        for (int i=0; i<CACHED; i++) {
+            segmentNumbers[i] = -1;
+        }
+    }
+
+
+    public int getWidth() {
+        return SEGMENT_COUNT * SEGMENT_WIDTH;
+    }
+
+
+    public int getHeight() {
+        return HEIGHT;
+    }
+
+
+    /**
+        Gets the number of segments that weren't ready when they
+        were needed, and were made on the caller's thread.
+    */
+    public synchronized int getMadeOnDemand() {
+        return madeOnDemand;
+    }
+
+
+    public void getColumn(int x, char[] column) {
+        char[][] segment = getSegment(x / SEGMENT_WIDTH);
+        System.arraycopy(segment[x % SEGMENT_WIDTH], 0, column, 0,
+            HEIGHT);
+    }
+
+
+    /**
+        Gets a segment, making it now if the background thread
+        hasn't, and has the background thread make the next few.
+    */
+    private synchronized char[][] getSegment(int number) {
+        // make the segments ahead in the background
+        int aheadTo = Math.min(number + 1 + AHEAD, SEGMENT_COUNT);
+        for (; requestedTo < aheadTo; requestedTo++) {
+            final int next = requestedTo;
+            worker.execute(new Runnable() {
+                public void run() {
+                    store(next, makeSegment(next));
+                }
+            });
+        }
+
+        int slot = number % CACHED;
+        if (segmentNumbers[slot] != number) {
+            madeOnDemand++;
+            segments[slot] = makeSegment(number);
+            segmentNumbers[slot] = number;
+        }
+        return segments[slot];
+    }
+
+
+    private synchronized void store(int number, char[][] segment) {
+        int slot = number % CACHED;
+        // don't replace a newer segment with one that was asked for
+        // long ago
+        if (segmentNumbers[slot] < number) {
+            segments[slot] = segment;
+            segmentNumbers[slot] = number;
+        }
+    }
+
+
+    /**
+        Makes a segment: ground of varying height with a few holes,
+        floating blocks with coins on them, grubs and flies. The
+        first segment has no creatures, and the last one has the
+        goal.
+    */
+    char[][] makeSegment(int number) {
+        Random random = new Random(seed * 0x5DEECE66DL + number);
+        char[][] columns = new char[SEGMENT_WIDTH][HEIGHT];
+        boolean creatures = (number > 0);
+
+        int ground = BASE_GROUND;
+        int sameGround = 0;
+        int hole = 0;
+        int blocks = 0;
+        int blockY = 0;
+        for (int x=0; x<SEGMENT_WIDTH; x++) {
+            char[] column = columns[x];
+            for (int y=0; y<HEIGHT; y++) {
+                column[y] = ' ';
+            }
+            // segments start and end on the same flat ground
+            boolean edge = (x < 2 || x >= SEGMENT_WIDTH - 4);
+
+            // change the height of the ground one step now and
+            // then, heading back down in time for the end
+            sameGround++;
+            int stepsLeft = (SEGMENT_WIDTH - 4 - x) / 3;
+            if (!edge && hole == 0 && sameGround >= 3) {
+                if (ground - BASE_GROUND >= stepsLeft) {
+                    ground += (ground > BASE_GROUND) ? -1 : 1;
+                    sameGround = 0;
+                }
+                else if (random.nextInt(5) == 0) {
+                    ground += random.nextBoolean() ? 1 : -1;
+                    ground = Math.max(1, Math.min(ground, MAX_GROUND));
+                    sameGround = 0;
+                }
+            }
+
+            // holes of two or three columns
+            if (hole == 0 && !edge && x < SEGMENT_WIDTH - 6 &&
+                random.nextInt(20) == 0)
+            {
+                hole = 2 + random.nextInt(2);
+            }
+            int top = HEIGHT - ground;
+            if (hole > 0) {
+                hole--;
+            }
+            else {
+                column[top] = 'B';
+                for (int y=top+1; y<HEIGHT; y++) {
+                    column[y] = 'A';
+                }
+                if (creatures && !edge && random.nextInt(12) == 0) {
+                    column[top - 1] = '1';
+                }
+            }
+
+            // floating blocks, with coins on top
+            if (blocks == 0 && !edge && random.nextInt(14) == 0) {
+                blocks = 3 + random.nextInt(4);
+                blockY = top - 4;
+            }
+            if (blocks > 0) {
+                if (edge) {
+                    blocks = 0;
+                }
+                else {
+                    blocks--;
+                    column[blockY] = 'I';
+                    if (x % 2 == 0) {
+                        column[blockY - 1] = 'o';
+                    }
+                }
+            }
+            else if (random.nextInt(10) == 0) {
+                column[top - 2] = 'o';
+            }
+
+            if (creatures && !edge && random.nextInt(30) == 0) {
+                column[Math.max(top - 6, 1)] = '2';
+            }
+        }
+
+        if (number == SEGMENT_COUNT - 1) {
+            columns[SEGMENT_WIDTH - 4][HEIGHT - BASE_GROUND - 1] = '*';
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,28 @@
+package com.TETOSOFT.tilegame;
+
+/**
+    A MapColumnSource supplies a map one column at a time, in the
+    symbols of the text maps: tile letters ('A', 'B', ...), sprite
+    symbols ('o', '1', ...) and spaces. MapStreamer reads columns
+    from it as the player moves.
+*/
+public interface MapColumnSource {
+
+    /**
+        Gets the number of columns in the map.
+    */
+    public int getWidth();
+
+
+    /**
+        Gets the number of rows in the map.
+    */
+    public int getHeight();
+
+
+    /**
+        Fills the array with the symbols of column x, from the top
+        row down. The array is getHeight() long.
+    */
+    public void getColumn(int x, char[] column);
+}
@@ -0,0 +1,116 @@
+package com.TETOSOFT.tilegame;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+    The MapCompiler class converts text maps into the binary format
+    read by BinaryMap. Run it on the text maps to compile, for
+    example:
+    <pre>
+    java com.TETOSOFT.tilegame.MapCompiler maps/map1.txt maps/map2.txt
+    </pre>
+    Each map is written next to its text file, with the .map
+    extension. MapLoader loads the compiled map instead of the text
+    map when it is at least as new.
+*/
+public class MapCompiler {
+
+    private static final String SPRITE_SYMBOLS = "o!*12";
+
+    public static void main(String[] args) throws IOException {
+        for (int i=0; i<args.length; i++) {
+            String mapFile = getCompiledName(args[i]);
+            compile(args[i], mapFile);
+            System.out.println(args[i] + " -> " + mapFile);
+        }
+    }
+
+
+    /**
+        Gets the name of the compiled map for a text map:
+        maps/map1.txt becomes maps/map1.map.
+    */
+    public static String getCompiledName(String textFile) {
+        int dot = textFile.lastIndexOf('.');
+        if (dot > textFile.lastIndexOf(File.separatorChar) &&
+            dot > textFile.lastIndexOf('/'))
+        {
+            textFile = textFile.substring(0, dot);
+        }
+        return textFile + BinaryMap.EXTENSION;
+    }
+
+
+    /**
+        Compiles a text map into a binary map.
+    */
+    public static void compile(String textFile, String mapFile)
+        throws IOException
+    {
+        ArrayList lines = new ArrayList();
+        int width = 0;
+
+        // read every line except for comments
+        BufferedReader reader = new BufferedReader(
+            new FileReader(textFile));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("#")) {
+                    lines.add(line);
+                    width = Math.max(width, line.length());
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        int height = lines.size();
+
+        // tiles column by column
+        byte[] tiles = new byte[width * height];
+        for (int y=0; y<height; y++) {
+            String line = (String)lines.get(y);
+            for (int x=0; x<line.length(); x++) {
+                char ch = line.charAt(x);
+                if (ch >= 'A' && ch <= 'Z') {
+                    tiles[x * height + y] = (byte)(ch - 'A' + 1);
+                }
+            }
+        }
+
+        // entities row by row, the order MapLoader adds the
+        // sprites of a text map in, so both play the same
+        ByteArrayOutputStream entityBytes = new ByteArrayOutputStream();
+        DataOutputStream entities = new DataOutputStream(entityBytes);
+        int entityCount = 0;
+        for (int y=0; y<height; y++) {
+            String line = (String)lines.get(y);
+            for (int x=0; x<line.length(); x++) {
+                char ch = line.charAt(x);
+                if (SPRITE_SYMBOLS.indexOf(ch) != -1) {
+                    entities.writeByte(ch);
+                    entities.writeInt(x);
+                    entities.writeInt(y);
+                    entityCount++;
+                }
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(mapFile)));
+        try {
+            out.writeInt(BinaryMap.MAGIC);
+            out.writeInt(BinaryMap.VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(entityCount);
+            out.write(tiles);
+            entityBytes.writeTo(out);
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -2,8 +2,17 @@ package com.TETOSOFT.tilegame;
 
 import java.awt.*;
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import javax.swing.ImageIcon;
 
 import com.TETOSOFT.graphics.*;
@@ -17,8 +26,29 @@ import com.TETOSOFT.tilegame.sprites.*;
 */
 public class MapLoader 
 {
+    // one background thread that loads the next maps of all games
+    private static final ExecutorService prefetcher =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "Map prefetcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
     private ArrayList tiles;
+    // parsed maps by file name, shared by clones
+    private HashMap templates;
     public int currentMap;
+    private String currentFile;
+    private boolean streaming;
+    private boolean generating;
+    private long levelSeed;
+    private long currentSeed;
+    // the map after currentMap, being loaded in the background
+    private Future nextMap;
+    private int nextMapFrom;
+    private boolean prefetching = true;
     private GraphicsConfiguration gc;
 
     // host sprites used for cloning
@@ -31,24 +61,159 @@ public class MapLoader
 
     /**
         Creates a new ResourceManager with the specified
-        GraphicsConfiguration.
+        GraphicsConfiguration. The GraphicsConfiguration may be
+        null when running without a display, in which case plain
+        BufferedImages are created instead of compatible images.
     */
     public MapLoader(GraphicsConfiguration gc) 
     {
         this.gc = gc;
+        templates = new HashMap();
         loadTileImages();
         loadCreatureSprites();
         loadPowerUpSprites();
     }
 
 
+    private MapLoader(MapLoader resources) 
+    {
+        gc = resources.gc;
+        tiles = resources.tiles;
+        templates = resources.templates;
+        playerSprite = resources.playerSprite;
+        musicSprite = resources.musicSprite;
+        coinSprite = resources.coinSprite;
+        goalSprite = resources.goalSprite;
+        grubSprite = resources.grubSprite;
+        flySprite = resources.flySprite;
+        currentMap = resources.currentMap;
+        currentFile = resources.currentFile;
+        streaming = resources.streaming;
+        generating = resources.generating;
+        levelSeed = resources.levelSeed;
+        currentSeed = resources.currentSeed;
+        prefetching = resources.prefetching;
+    }
+
+
+    /**
+        Creates a new ResourceManager that shares the tile images
+        and host sprites of this one, without loading them again.
+        Each ResourceManager keeps track of its own current map,
+        so several games can load maps at once.
+    */
+    public Object clone() 
+    {
+        return new MapLoader(this);
+    }
+
+
+    /**
+        Sets whether text maps are streamed: loaded a few columns
+        at a time as the player moves, by a MapStreamer, instead of
+        all at once.
+    */
+    public void setStreaming(boolean streaming) 
+    {
+        this.streaming = streaming;
+        cancelPrefetch();
+    }
+
+
+    public boolean isStreaming() 
+    {
+        return streaming;
+    }
+
+
+    /**
+        Sets the seed of generated levels, and has levels made by a
+        LevelGenerator be played after the last map file, instead of
+        starting over at the first map. Level n is made from the
+        seed plus n, so the same seed always gives the same levels.
+    */
+    public void setLevelSeed(long levelSeed) 
+    {
+        this.levelSeed = levelSeed;
+        generating = true;
+        cancelPrefetch();
+    }
+
+
+    /**
+        Goes back to starting over at the first map after the last
+        map file, instead of playing generated levels.
+    */
+    public void clearLevelSeed() 
+    {
+        levelSeed = 0;
+        generating = false;
+        cancelPrefetch();
+    }
+
+
+    /**
+        Checks if generated levels are played after the last map
+        file.
+    */
+    public boolean isGenerating() 
+    {
+        return generating;
+    }
+
+
+    public long getLevelSeed() 
+    {
+        return levelSeed;
+    }
+
+
+    /**
+        Sets whether loadNextMap() starts loading the map after
+        the next one in the background. Games that run many at a
+        time, or faster than real time, should turn this off: all
+        MapLoaders share one background thread, so their maps
+        would only wait in line for it.
+    */
+    public void setPrefetching(boolean prefetching) 
+    {
+        this.prefetching = prefetching;
+        cancelPrefetch();
+    }
+
+
     /**
         Gets an image from the images/ directory.
     */
     public Image loadImage(String name) 
     {
         String filename = "images/" + name;
-        return new ImageIcon(filename).getImage();
+        return new ImageIcon(findFile(filename).getPath()).getImage();
+    }
+
+
+    /**
+        Gets the specified file. If it doesn't exist, looks for a
+        file in the same directory whose name only differs in case
+        (images/player.PNG for images/player.png), so the game
+        loads on case-sensitive file systems.
+    */
+    private File findFile(String filename)
+    {
+        File file = new File(filename);
+        if (!file.exists()) 
+        {
+            File dir = file.getAbsoluteFile().getParentFile();
+            String[] names = dir.list();
+            for (int i=0; names != null && i<names.length; i++) 
+            {
+                if (names[i].equalsIgnoreCase(file.getName())) 
+                {
+                    return new File(dir, names[i]);
+                }
+            }
+        }
+        return file;
     }
 
 
@@ -75,10 +240,21 @@ public class MapLoader
             (y-1) * image.getHeight(null) / 2);
 
         // create a transparent (not translucent) image
-        Image newImage = gc.createCompatibleImage(
-            image.getWidth(null),
-            image.getHeight(null),
-            Transparency.BITMASK);
+        Image newImage;
+        if (gc != null) 
+        {
+            newImage = gc.createCompatibleImage(
+                image.getWidth(null),
+                image.getHeight(null),
+                Transparency.BITMASK);
+        }
+        else 
+        {
+            newImage = new BufferedImage(
+                image.getWidth(null),
+                image.getHeight(null),
+                BufferedImage.TYPE_INT_ARGB);
+        }
 
         // draw the transformed image
         Graphics2D g = (Graphics2D)newImage.getGraphics();
@@ -89,37 +265,131 @@ public class MapLoader
     }
 
 
+    /**
+        Loads the map after the current one, and starts loading
+        the one after that in the background. If the map was loaded
+        in the background already, it is used as is; if it is still
+        being loaded, this waits for it; if it hasn't been started
+        yet, it is loaded here instead.
+    */
     public TileMap loadNextMap() 
     {
-        TileMap map = null;
-        while (map == null) 
+        NextMap next = null;
+        if (nextMap != null && nextMapFrom == currentMap) 
+        {
+            if (nextMap.isDone() || !nextMap.cancel(false)) 
+            {
+                try {
+                    next = (NextMap)nextMap.get();
+                }
+                catch (InterruptedException ex) 
+                {
+                    Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException ex) 
+                {
+                    ex.getCause().printStackTrace();
+                }
+            }
+        }
+        cancelPrefetch();
+        if (next == null) 
         {
-            currentMap++;
+            next = findNextMap(currentMap);
+        }
+        if (next.map == null) 
+        {
+            // no maps to load!
+            return null;
+        }
+
+        currentMap = next.mapNumber;
+        currentFile = next.file;
+        currentSeed = next.seed;
+        if (prefetching) 
+        {
+            prefetchNextMap();
+        }
+        return next.map;
+    }
+
+
+    /**
+        Starts loading the map after the current one on the
+        background thread.
+    */
+    private void prefetchNextMap() 
+    {
+        final int fromMap = currentMap;
+        nextMapFrom = fromMap;
+        nextMap = prefetcher.submit(new Callable() {
+            public Object call() {
+                return findNextMap(fromMap);
+            }
+        });
+    }
+
+
+    /**
+        Forgets the map being loaded in the background, which
+        may no longer be the next one.
+    */
+    private void cancelPrefetch() 
+    {
+        if (nextMap != null) 
+        {
+            nextMap.cancel(false);
+            nextMap = null;
+        }
+    }
+
+
+    /**
+        Loads the map after the specified one, without changing the
+        current map, so it can be called from any thread. After
+        the last map file comes the first one again, or a generated
+        level if levels are generated.
+    */
+    private NextMap findNextMap(int mapNumber) 
+    {
+        while (true) 
+        {
+            mapNumber++;
+            String file = getMapFile(mapNumber);
             try {
-                map = loadMap(
-                    "maps/map" + currentMap + ".txt");
+                return new NextMap(mapNumber, file, 0, readMap(file));
             }
             catch (IOException ex) 
             {
-                if (currentMap == 2) 
+                if (generating) 
                 {
-                    // no maps to load!
-                    return null;
+                    long seed = levelSeed + mapNumber;
+                    return new NextMap(mapNumber, null, seed,
+                        loadStreamingMap(new LevelGenerator(seed)));
                 }
-                  currentMap = 0;
-                map = null;
+                if (mapNumber == 2) 
+                {
+                    return new NextMap(mapNumber, null, 0, null);
+                }
+                mapNumber = 0;
             }
         }
-
-        return map;
     }
 
 
+    /**
+        Loads the last map loaded again, copying the map parsed
+        from its file the first time, or makes it again if it was
+        generated.
+    */
     public TileMap reloadMap() 
     {
+        if (currentFile == null) 
+        {
+            return loadGeneratedMap(currentSeed);
+        }
         try {
-            return loadMap(
-                "maps/map" + currentMap + ".txt");
+            return loadMap(currentFile);
         }
         catch (IOException ex) {
             ex.printStackTrace();
@@ -128,7 +398,181 @@ public class MapLoader
     }
 
 
-    private TileMap loadMap(String filename)
+    /**
+        Gets the file of the specified map number: the map
+        compiled by MapCompiler if it is at least as new as the
+        text map, otherwise the text map.
+    */
+    private String getMapFile(int mapNumber)
+    {
+        File text = new File("maps/map" + mapNumber + ".txt");
+        File binary = new File(
+            MapCompiler.getCompiledName(text.getPath()));
+        if (binary.exists() && 
+            binary.lastModified() >= text.lastModified()) 
+        {
+            return binary.getPath();
+        }
+        return text.getPath();
+    }
+
+
+    /**
+        Loads a map from the specified text file, or from a map
+        compiled by MapCompiler if the file name ends with .map.
+        Later calls to reloadMap() load the same file.
+        <p>A file is only read and parsed the first time it is
+        loaded. The parsed map is kept as a template, and loading
+        the file again copies it: the tiles are shared with the
+        template until they change, and only the sprites are
+        cloned. Streamed text maps are read again every time.
+    */
+    public TileMap loadMap(String filename)
+        throws IOException
+    {
+        TileMap newMap = readMap(filename);
+        currentFile = filename;
+        return newMap;
+    }
+
+
+    private TileMap readMap(String filename)
+        throws IOException
+    {
+        TileMap newMap;
+        if (streaming && !filename.endsWith(BinaryMap.EXTENSION)) 
+        {
+            newMap = loadStreamingMap(new TextColumnSource(filename));
+        }
+        else 
+        {
+            newMap = copyMap(getTemplate(filename));
+        }
+        return newMap;
+    }
+
+
+    /**
+        Gets the parsed map of a file, parsing it if this is the
+        first time. The template isn't played; only copies of it
+        are. It is frozen before it is shared, so copying it from
+        several threads doesn't write to it.
+    */
+    private TileMap getTemplate(String filename)
+        throws IOException
+    {
+        TileMap template;
+        synchronized (templates) 
+        {
+            template = (TileMap)templates.get(filename);
+        }
+        if (template == null) 
+        {
+            if (filename.endsWith(BinaryMap.EXTENSION)) 
+            {
+                template = loadBinaryMap(filename);
+            }
+            else 
+            {
+                template = loadTextMap(filename);
+            }
+            synchronized (templates) 
+            {
+                template.freeze();
+                templates.put(filename, template);
+            }
+        }
+        return template;
+    }
+
+
+    /**
+        Creates a map to play from a template: it shares the
+        template's tiles, and has clones of its sprites at the same
+        positions, in the same order, and a new player.
+    */
+    private TileMap copyMap(TileMap template)
+    {
+        TileMap newMap = template.copyTiles();
+        Iterator i = template.getSprites();
+        while (i.hasNext()) 
+        {
+            Sprite sprite = (Sprite)i.next();
+            Sprite copy = (Sprite)sprite.clone();
+            copy.setX(sprite.getX());
+            copy.setY(sprite.getY());
+            newMap.addSprite(copy);
+        }
+        addPlayer(newMap);
+        return newMap;
+    }
+
+
+    /**
+        Loads a compiled map. Only the header and the entity table
+        are read up front; the tiles are copied from the mapped
+        file one chunk at a time.
+    */
+    private TileMap loadBinaryMap(String filename)
+        throws IOException
+    {
+        BinaryMap binary = new BinaryMap(filename);
+        int width = binary.getWidth();
+        int height = binary.getHeight();
+        TileMap newMap = createMap(width, height);
+        newMap.setChunkSource(binary);
+        int chunksWide = (width + TileMap.CHUNK_SIZE - 1) / 
+            TileMap.CHUNK_SIZE;
+        int chunksHigh = (height + TileMap.CHUNK_SIZE - 1) / 
+            TileMap.CHUNK_SIZE;
+        for (int x=0; x<chunksWide; x++) 
+        {
+            for (int y=0; y<chunksHigh; y++) 
+            {
+                newMap.loadChunk(x, y);
+            }
+        }
+
+        for (int i=0; i<binary.getEntityCount(); i++) 
+        {
+            addSprite(newMap, binary.getEntitySymbol(i), 
+                binary.getEntityX(i), binary.getEntityY(i));
+        }
+        return newMap;
+    }
+
+
+    /**
+        Creates a map that is loaded from the source by a
+        MapStreamer as the player moves. Only the player is added
+        here; GameWorld has the streamer load the columns around
+        the screen.
+    */
+    public TileMap loadStreamingMap(MapColumnSource source) 
+    {
+        TileMap newMap = createMap(source.getWidth(), source.getHeight());
+        newMap.setStreamer(new MapStreamer(newMap, source, this));
+        addPlayer(newMap);
+        return newMap;
+    }
+
+
+    /**
+        Creates a map made by a LevelGenerator with the specified
+        seed. It is streamed like a text map, with the segments
+        ahead of the player made on a background thread. Later
+        calls to reloadMap() make the same map again.
+    */
+    public TileMap loadGeneratedMap(long seed) 
+    {
+        TileMap newMap = loadStreamingMap(new LevelGenerator(seed));
+        currentFile = null;
+        currentSeed = seed;
+        return newMap;
+    }
+
+
+    private TileMap loadTextMap(String filename)
         throws IOException
     {
         ArrayList lines = new ArrayList();
@@ -155,7 +599,7 @@ public class MapLoader
 
         // parse the lines to create a TileEngine
         height = lines.size();
-        TileMap newMap = new TileMap(width, height);
+        TileMap newMap = createMap(width, height);
         for (int y=0; y<height; y++) {
             String line = (String)lines.get(y);
             for (int x=0; x<line.length(); x++) {
@@ -164,35 +608,67 @@ public class MapLoader
                 // check if the char represents tile A, B, C etc.
                 int tile = ch - 'A';
                 if (tile >= 0 && tile < tiles.size()) {
-                    newMap.setTile(x, y, (Image)tiles.get(tile));
+                    newMap.setTileIndex(x, y, tile + 1);
                 }
 
                 // check if the char represents a sprite
-                else if (ch == 'o') {
-                    addSprite(newMap, coinSprite, x, y);
-                }
-                else if (ch == '!') {
-                    addSprite(newMap, musicSprite, x, y);
-                }
-                else if (ch == '*') {
-                    addSprite(newMap, goalSprite, x, y);
-                }
-                else if (ch == '1') {
-                    addSprite(newMap, grubSprite, x, y);
-                }
-                else if (ch == '2') {
-                    addSprite(newMap, flySprite, x, y);
+                else {
+                    addSprite(newMap, ch, x, y);
                 }
             }
         }
+        return newMap;
+    }
+
+
+    /**
+        Adds the sprite a map symbol stands for, if any.
+    */
+    void addSprite(TileMap map, char ch, int tileX, int tileY)
+    {
+        if (ch == 'o') {
+            addSprite(map, coinSprite, tileX, tileY);
+        }
+        else if (ch == '!') {
+            addSprite(map, musicSprite, tileX, tileY);
+        }
+        else if (ch == '*') {
+            addSprite(map, goalSprite, tileX, tileY);
+        }
+        else if (ch == '1') {
+            addSprite(map, grubSprite, tileX, tileY);
+        }
+        else if (ch == '2') {
+            addSprite(map, flySprite, tileX, tileY);
+        }
+    }
 
-        // add the player to the map
+
+    /**
+        Adds the player to the map, at its starting position.
+    */
+    private void addPlayer(TileMap map)
+    {
         Sprite player = (Sprite)playerSprite.clone();
         player.setX(TileMapDrawer.tilesToPixels(3));
-        player.setY(lines.size());
-        newMap.setPlayer(player);
+        player.setY(map.getHeight());
+        map.setPlayer(player);
+    }
 
-        return newMap;
+
+    /**
+        Creates an empty TileMap whose palette holds the tile
+        images in order, so tile A has index 1, tile B index 2,
+        and so on.
+    */
+    private TileMap createMap(int width, int height)
+    {
+        TileMap map = new TileMap(width, height);
+        for (int i=0; i<tiles.size(); i++) 
+        {
+            map.getPaletteIndex((Image)tiles.get(i));
+        }
+        return map;
     }
 
 
@@ -294,10 +770,25 @@ public class MapLoader
     }
 
 
+    /**
+        Adds a frame to an Animation, with a CollisionMask of the
+        image so collisions only count its opaque pixels.
+    */
+    private void addFrame(Animation anim, Image image, long duration)
+    {
+        CollisionMask mask = null;
+        if (image.getWidth(null) > 0 && image.getHeight(null) > 0) 
+        {
+            mask = new CollisionMask(image);
+        }
+        anim.addFrame(image, duration, mask);
+    }
+
+
     private Animation createPlayerAnim(Image player)
     {
         Animation anim = new Animation();
-        anim.addFrame(player, 250);
+        addFrame(anim, player, 250);
      
         return anim;
     }
@@ -306,10 +797,10 @@ public class MapLoader
     private Animation createFlyAnim(Image img1, Image img2, Image img3)
     {
         Animation anim = new Animation();
-        anim.addFrame(img1, 50);
-        anim.addFrame(img2, 50);
-        anim.addFrame(img3, 50);
-        anim.addFrame(img2, 50);
+        addFrame(anim, img1, 50);
+        addFrame(anim, img2, 50);
+        addFrame(anim, img3, 50);
+        addFrame(anim, img2, 50);
         return anim;
     }
 
@@ -317,8 +808,8 @@ public class MapLoader
     private Animation createGrubAnim(Image img1, Image img2)
     {
         Animation anim = new Animation();
-        anim.addFrame(img1, 250);
-        anim.addFrame(img2, 250);
+        addFrame(anim, img1, 250);
+        addFrame(anim, img2, 250);
         return anim;
     }
 
@@ -327,26 +818,47 @@ public class MapLoader
     {
         // create "goal" sprite
         Animation anim = new Animation();
-        anim.addFrame(loadImage("heart.png"), 150);
+        addFrame(anim, loadImage("heart.png"), 150);
         goalSprite = new PowerUp.Goal(anim);
 
         // create "star" sprite
         anim = new Animation();
-        anim.addFrame(loadImage("coin1.png"),250 ) ;  
-        anim.addFrame(loadImage("coin2.png"),250);
-        anim.addFrame(loadImage("coin3.png"),250);
-        anim.addFrame(loadImage("coin4.png"),250);
-        anim.addFrame(loadImage("coin5.png"),250);
+        addFrame(anim, loadImage("coin1.png"), 250);
+        addFrame(anim, loadImage("coin2.png"), 250);
+        addFrame(anim, loadImage("coin3.png"), 250);
+        addFrame(anim, loadImage("coin4.png"), 250);
+        addFrame(anim, loadImage("coin5.png"), 250);
         coinSprite = new PowerUp.Star(anim);
 
         // create "music" sprite
         anim = new Animation();
-        anim.addFrame(loadImage("music1.png"), 150);
-        anim.addFrame(loadImage("music2.png"), 150);
-        anim.addFrame(loadImage("music3.png"), 150);
-        anim.addFrame(loadImage("music2.png"), 150);
+        addFrame(anim, loadImage("music1.png"), 150);
+        addFrame(anim, loadImage("music2.png"), 150);
+        addFrame(anim, loadImage("music3.png"), 150);
+        addFrame(anim, loadImage("music2.png"), 150);
         musicSprite = new PowerUp.Music(anim);
         musicSprite=new PowerUp.Music(anim);
     }
 
+
+    /**
+        A map loaded by findNextMap(), with what reloadMap() needs
+        to load it again.
+    */
+    private static class NextMap 
+    {
+        int mapNumber;
+        String file;
+        long seed;
+        TileMap map;
+
+        NextMap(int mapNumber, String file, long seed, TileMap map) 
+        {
+            this.mapNumber = mapNumber;
+            this.file = file;
+            this.seed = seed;
+            this.map = map;
+        }
+    }
+
 }
@@ -0,0 +1,160 @@
+package com.TETOSOFT.tilegame;
+
+import com.TETOSOFT.graphics.Sprite;
+
+/**
+    The MapStreamer class fills a TileMap from a MapColumnSource a
+    few columns ahead of the screen, instead of all at once, and
+    frees the chunks far behind it. Only the part of the map around
+    the screen is in memory, so a level can start at once and be as
+    long as the source.
+    <p>A column's sprites are added the first time the column is
+    loaded. Sprites in chunks that are freed are removed. If the
+    screen goes back to freed chunks, their tiles are loaded again,
+    but their sprites are not, so coins collected there don't come
+    back.
+*/
+public class MapStreamer {
+
+    /**
+        Number of columns past the edge of the screen to load.
+    */
+    public static final int LOOKAHEAD = 16;
+
+    /**
+        Number of columns left of the screen to keep in memory.
+        Chunks entirely further left are freed.
+    */
+    public static final int KEEP_BEHIND = 64;
+
+    private TileMap map;
+    private MapColumnSource source;
+    private MapLoader mapLoader;
+    private char[] column;
+    // columns fromX to toX - 1 are loaded; fromX is always the
+    // first column of a chunk
+    private int fromX;
+    private int toX;
+    // columns left of this had their sprites added
+    private int spritesToX;
+    private Sprite[] removed = new Sprite[16];
+
+
+    /**
+        Creates a MapStreamer that loads columns of the source into
+        the map, adding sprites with the MapLoader's host sprites.
+    */
+    public MapStreamer(TileMap map, MapColumnSource source,
+        MapLoader mapLoader)
+    {
+        this.map = map;
+        this.source = source;
+        this.mapLoader = mapLoader;
+        column = new char[source.getHeight()];
+    }
+
+
+    /**
+        Gets the first column in memory.
+    */
+    public int getFromX() {
+        return fromX;
+    }
+
+
+    /**
+        Gets the column after the last column in memory.
+    */
+    public int getToX() {
+        return toX;
+    }
+
+
+    /**
+        Loads the columns near the screen and frees the chunks far
+        behind it, for the specified horizontal scrolling position.
+    */
+    public void update(int offsetX, int screenWidth) {
+        int firstX = TileMapDrawer.pixelsToTiles(-offsetX);
+        int lastX = TileMapDrawer.pixelsToTiles(-offsetX + screenWidth);
+
+        // load ahead
+        int wantToX = Math.min(lastX + 1 + LOOKAHEAD, source.getWidth());
+        while (toX < wantToX) {
+            loadColumn(toX);
+            toX++;
+        }
+
+        // load the chunks behind again if the screen went back
+        int wantFromX = Math.max(firstX - LOOKAHEAD, 0);
+        while (fromX > wantFromX) {
+            fromX -= TileMap.CHUNK_SIZE;
+            for (int x=fromX; x<fromX + TileMap.CHUNK_SIZE; x++) {
+                loadColumn(x);
+            }
+        }
+
+        // free the chunks far behind
+        while (fromX + TileMap.CHUNK_SIZE <= firstX - KEEP_BEHIND) {
+            freeChunkColumn(fromX / TileMap.CHUNK_SIZE);
+            fromX += TileMap.CHUNK_SIZE;
+        }
+    }
+
+
+    private void loadColumn(int x) {
+        source.getColumn(x, column);
+        boolean addSprites = (x >= spritesToX);
+        int paletteSize = map.getPaletteSize();
+        for (int y=0; y<column.length; y++) {
+            char ch = column[y];
+            int tile = ch - 'A' + 1;
+            if (tile > 0 && tile < paletteSize) {
+                map.setTileIndex(x, y, tile);
+            }
+            else if (addSprites) {
+                mapLoader.addSprite(map, ch, x, y);
+            }
+        }
+        if (addSprites) {
+            spritesToX = x + 1;
+        }
+    }
+
+
+    private void freeChunkColumn(int chunkX) {
+        int chunksHigh = (map.getHeight() + TileMap.CHUNK_SIZE - 1) /
+            TileMap.CHUNK_SIZE;
+        for (int chunkY=0; chunkY<chunksHigh; chunkY++) {
+            map.unloadChunk(chunkX, chunkY);
+        }
+
+        // remove the sprites in those columns, including the ones
+        // just above the map or that fell out of it
+        SpatialHash index = map.getSpriteIndex();
+        int fromX = chunkX * TileMap.CHUNK_SIZE;
+        for (int x=fromX; x<fromX + TileMap.CHUNK_SIZE; x++) {
+            for (int y=-2; y<=map.getHeight() + 1; y++) {
+                int bucket = index.getBucketIndex(x, y);
+                Sprite[] sprites = index.getBucket(bucket);
+                long cell = SpatialHash.getCell(x, y);
+                int count = 0;
+                for (int i=0; i<index.getBucketSize(bucket); i++) {
+                    if (sprites[i].getCell() == cell) {
+                        if (count == removed.length) {
+                            Sprite[] newRemoved = new Sprite[count * 2];
+                            System.arraycopy(removed, 0, newRemoved, 0,
+                                count);
+                            removed = newRemoved;
+                        }
+                        removed[count++] = sprites[i];
+                    }
+                }
+                for (int i=0; i<count; i++) {
+                    map.removeSprite(removed[i]);
+                    removed[i] = null;
+                }
+            }
+        }
+    }
+}
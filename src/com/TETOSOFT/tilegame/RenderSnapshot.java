@@ -0,0 +1,152 @@
+package com.TETOSOFT.tilegame;
+
+import java.awt.Image;
+
+import com.TETOSOFT.graphics.Sprite;
+
+/**
+    The RenderSnapshot class holds everything needed to draw one
+    frame: the camera offset, the position and current animation
+    frame of every Sprite on screen (player first), and the HUD
+    counters.
+    Snapshots are filled on the simulation thread and handed to
+    the render thread through a TripleBuffer, and are not changed
+    while the render thread holds them.
+    <p>The tiles on screen are copied too, since a MapStreamer
+    loads and frees them on the simulation thread as the player
+    moves. The copy shares the map's chunks, which the map copies
+    before it sets a tile in them, so capturing only copies the
+    references to the chunks on screen. Sprites are found through
+    the map's SpatialHash, so capturing a frame takes the same time
+    however big the map is.
+*/
+public class RenderSnapshot {
+
+    private TileMap map;
+    private int offsetX;
+    private int spriteCount;
+    private int[] x = new int[16];
+    private int[] y = new int[16];
+    private Image[] images = new Image[16];
+    private int collectedStars;
+    private int numLives;
+    private int mapNumber;
+
+
+    /**
+        Captures the current state of the part of the specified map
+        that is on screen.
+    */
+    public void capture(TileMap map, int screenWidth,
+        int collectedStars, int numLives, int mapNumber)
+    {
+        this.collectedStars = collectedStars;
+        this.numLives = numLives;
+        this.mapNumber = mapNumber;
+        spriteCount = 0;
+
+        Sprite player = map.getPlayer();
+        offsetX = TileMapDrawer.getOffsetX(map, player.getX(),
+            screenWidth);
+        int firstTileX = TileMapDrawer.pixelsToTiles(-offsetX);
+        int lastTileX = TileMapDrawer.pixelsToTiles(-offsetX +
+            screenWidth - 1);
+
+        // a cached block also draws the column of tiles left of it
+        this.map = map.copyTiles(this.map,
+            firstTileX - TileMapDrawer.BLOCK_SIZE, lastTileX);
+
+        add(player);
+
+        // Sprites are filed by their top-left corner, so take the
+        // ones up to a Sprite's width left of the screen as well
+        SpatialHash index = map.getSpriteIndex();
+        int fromTileX = TileMapDrawer.pixelsToTiles(-offsetX -
+            index.getMaxWidth());
+        for (int x=fromTileX; x<=lastTileX; x++) {
+            for (int y=-1; y<=map.getHeight(); y++) {
+                int bucket = index.getBucketIndex(x, y);
+                Sprite[] sprites = index.getBucket(bucket);
+                // a bucket holds several cells; only take this one
+                long cell = SpatialHash.getCell(x, y);
+                for (int j=0; j<index.getBucketSize(bucket); j++) {
+                    if (sprites[j].getCell() == cell) {
+                        add(sprites[j]);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private void add(Sprite sprite) {
+        if (spriteCount == images.length) {
+            int[] newX = new int[spriteCount * 2];
+            int[] newY = new int[spriteCount * 2];
+            Image[] newImages = new Image[spriteCount * 2];
+            System.arraycopy(x, 0, newX, 0, spriteCount);
+            System.arraycopy(y, 0, newY, 0, spriteCount);
+            System.arraycopy(images, 0, newImages, 0, spriteCount);
+            x = newX;
+            y = newY;
+            images = newImages;
+        }
+        x[spriteCount] = Math.round(sprite.getX());
+        y[spriteCount] = Math.round(sprite.getY());
+        images[spriteCount] = sprite.getImage();
+        spriteCount++;
+    }
+
+
+    /**
+        Gets a copy of the tiles of the map on screen, without its
+        Sprites, or null if nothing has been captured. Chunks off
+        screen are empty in the copy.
+    */
+    public TileMap getMap() {
+        return map;
+    }
+
+
+    public int getOffsetX() {
+        return offsetX;
+    }
+
+
+    /**
+        Gets the number of Sprites, including the player.
+    */
+    public int getSpriteCount() {
+        return spriteCount;
+    }
+
+
+    public int getX(int i) {
+        return x[i];
+    }
+
+
+    public int getY(int i) {
+        return y[i];
+    }
+
+
+    public Image getImage(int i) {
+        return images[i];
+    }
+
+
+    public int getCollectedStars() {
+        return collectedStars;
+    }
+
+
+    public int getNumLives() {
+        return numLives;
+    }
+
+
+    public int getMapNumber() {
+        return mapNumber;
+    }
+}
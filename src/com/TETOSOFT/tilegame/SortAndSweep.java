@@ -0,0 +1,153 @@
+package com.TETOSOFT.tilegame;
+
+import com.TETOSOFT.graphics.Sprite;
+import com.TETOSOFT.tilegame.sprites.Creature;
+
+/**
+    The SortAndSweep class finds the pairs of Creatures that
+    overlap. Creatures are kept sorted by their left edge, so only
+    Creatures whose x ranges overlap are compared. Creatures barely
+    move between updates, so the list is re-sorted with an insertion
+    sort, which is close to linear on a nearly sorted list.
+    <p>Only the active Creatures (those near the screen) are kept.
+    Creatures that are no longer alive, that have left the active
+    columns, or that have been removed from the map, are dropped
+    from the list and made inactive the next time it's sorted.
+*/
+public class SortAndSweep {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Creature[] creatures = new Creature[INITIAL_CAPACITY];
+    private float[] minX = new float[INITIAL_CAPACITY];
+    private float[] maxX = new float[INITIAL_CAPACITY];
+    private float[] minY = new float[INITIAL_CAPACITY];
+    private float[] maxY = new float[INITIAL_CAPACITY];
+    private int count;
+
+    private Creature[] pairs = new Creature[INITIAL_CAPACITY];
+    private int pairCount;
+
+
+    /**
+        Adds a Creature, and makes it active.
+    */
+    public void add(Creature creature) {
+        if (count == creatures.length) {
+            int capacity = count * 2;
+            Creature[] newCreatures = new Creature[capacity];
+            System.arraycopy(creatures, 0, newCreatures, 0, count);
+            creatures = newCreatures;
+            minX = new float[capacity];
+            maxX = new float[capacity];
+            minY = new float[capacity];
+            maxY = new float[capacity];
+        }
+        creatures[count++] = creature;
+        creature.setActive(true);
+    }
+
+
+    /**
+        Gets the number of Creatures in the list.
+    */
+    public int size() {
+        return count;
+    }
+
+
+    /**
+        Sorts the Creatures by their current position and finds
+        every overlapping pair. Creatures outside the specified
+        range of tile columns are dropped. Use getPairCount() and
+        getPair() to read the pairs. Creatures no longer in the
+        map's sprite index are dropped as well, since nothing else
+        would drop them if they were removed inside the range.
+    */
+    public void update(int fromTileX, int toTileX) {
+        // drop creatures that aren't alive, active or in the map,
+        // and read positions
+        int n = 0;
+        for (int i=0; i<count; i++) {
+            Creature creature = creatures[i];
+            int tileX = TileMapDrawer.pixelsToTiles(creature.getX());
+            if (creature.isAlive() &&
+                creature.getCell() != Sprite.NO_CELL &&
+                tileX >= fromTileX && tileX <= toTileX)
+            {
+                creatures[n] = creature;
+                minX[n] = creature.getX();
+                n++;
+            }
+            else {
+                creature.setActive(false);
+            }
+        }
+        for (int i=n; i<count; i++) {
+            creatures[i] = null;
+        }
+        count = n;
+
+        // insertion sort by left edge
+        for (int i=1; i<count; i++) {
+            Creature creature = creatures[i];
+            float x = minX[i];
+            int j = i - 1;
+            while (j >= 0 && minX[j] > x) {
+                creatures[j + 1] = creatures[j];
+                minX[j + 1] = minX[j];
+                j--;
+            }
+            creatures[j + 1] = creature;
+            minX[j + 1] = x;
+        }
+
+        for (int i=0; i<count; i++) {
+            Creature creature = creatures[i];
+            maxX[i] = minX[i] + creature.getWidth();
+            minY[i] = creature.getY();
+            maxY[i] = minY[i] + creature.getHeight();
+        }
+
+        // sweep: compare each creature with the ones that start
+        // before it ends
+        pairCount = 0;
+        for (int i=0; i<count; i++) {
+            for (int j=i+1; j<count && minX[j] < maxX[i]; j++) {
+                if (minY[i] < maxY[j] && minY[j] < maxY[i]) {
+                    addPair(creatures[i], creatures[j]);
+                }
+            }
+        }
+    }
+
+
+    private void addPair(Creature left, Creature right) {
+        if (pairCount * 2 == pairs.length) {
+            Creature[] newPairs = new Creature[pairs.length * 2];
+            System.arraycopy(pairs, 0, newPairs, 0, pairs.length);
+            pairs = newPairs;
+        }
+        pairs[pairCount * 2] = left;
+        pairs[pairCount * 2 + 1] = right;
+        pairCount++;
+    }
+
+
+    /**
+        Gets the number of overlapping pairs found by the last
+        update().
+    */
+    public int getPairCount() {
+        return pairCount;
+    }
+
+
+    /**
+        Gets a Creature of an overlapping pair: side 0 for the
+        Creature further left, 1 for the other.
+    */
+    public Creature getPair(int pair, int side) {
+        return pairs[pair * 2 + side];
+    }
+}
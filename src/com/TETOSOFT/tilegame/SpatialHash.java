@@ -0,0 +1,218 @@
+package com.TETOSOFT.tilegame;
+
+import com.TETOSOFT.graphics.Sprite;
+
+/**
+    The SpatialHash class files Sprites by the tile cell of their
+    top-left corner, so the Sprites near a point can be found
+    without looking at every Sprite in the map. Cells are hashed
+    into a table of buckets that grows with the number of Sprites,
+    so it works for maps of any size, including cells outside the
+    map. Different cells may share a bucket; callers must still
+    check each Sprite they get.
+    <p>Sprites are moved to their new cell by update(), which only
+    does work when a Sprite crosses into another cell.
+*/
+public class SpatialHash {
+
+    private static final int INITIAL_BUCKETS = 64;
+    private static final int INITIAL_BUCKET_SIZE = 4;
+
+    private Sprite[][] buckets;
+    private int[] bucketSizes;
+    private int mask;
+    private int size;
+    private int maxWidth;
+    private int maxHeight;
+
+
+    /**
+        Creates a new, empty SpatialHash.
+    */
+    public SpatialHash() {
+        createTable(INITIAL_BUCKETS);
+    }
+
+
+    private void createTable(int bucketCount) {
+        buckets = new Sprite[bucketCount][];
+        bucketSizes = new int[bucketCount];
+        mask = bucketCount - 1;
+    }
+
+
+    /**
+        Gets the number of Sprites in this SpatialHash.
+    */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+        Gets the width of the widest Sprite added, in pixels.
+    */
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+
+    /**
+        Gets the height of the tallest Sprite added, in pixels.
+    */
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+
+    /**
+        Adds a Sprite at its current position.
+    */
+    public void add(Sprite sprite) {
+        if (size == buckets.length) {
+            rehash(buckets.length * 2);
+        }
+        updateMaxSize(sprite);
+        long cell = getCell(sprite);
+        insert(sprite, cell);
+        sprite.setCell(cell);
+        size++;
+    }
+
+
+    /**
+        Removes a Sprite. Does nothing if the Sprite isn't in this
+        SpatialHash.
+    */
+    public void remove(Sprite sprite) {
+        long cell = sprite.getCell();
+        if (cell != Sprite.NO_CELL &&
+            delete(sprite, getBucketIndex(cell)))
+        {
+            sprite.setCell(Sprite.NO_CELL);
+            size--;
+        }
+    }
+
+
+    /**
+        Moves a Sprite to the cell of its current position. Call
+        after the Sprite moves.
+    */
+    public void update(Sprite sprite) {
+        long oldCell = sprite.getCell();
+        long cell = getCell(sprite);
+        if (cell != oldCell && oldCell != Sprite.NO_CELL) {
+            updateMaxSize(sprite);
+            int oldBucket = getBucketIndex(oldCell);
+            int bucket = getBucketIndex(cell);
+            if (bucket != oldBucket) {
+                delete(sprite, oldBucket);
+                insert(sprite, cell);
+            }
+            sprite.setCell(cell);
+        }
+    }
+
+
+    /**
+        Gets the index of the bucket the specified cell is filed
+        in.
+    */
+    public int getBucketIndex(int cellX, int cellY) {
+        int hash = cellX * 0x9E3779B1 + cellY * 0x85EBCA77;
+        return (hash ^ (hash >>> 15)) & mask;
+    }
+
+
+    /**
+        Gets the Sprites in the specified bucket. Only the first
+        getBucketSize() entries are used.
+    */
+    public Sprite[] getBucket(int index) {
+        return buckets[index];
+    }
+
+
+    /**
+        Gets the number of Sprites in the specified bucket.
+    */
+    public int getBucketSize(int index) {
+        return bucketSizes[index];
+    }
+
+
+    /**
+        Gets the cell key of the specified tile cell, as returned
+        by Sprite.getCell() for the Sprites filed in it.
+    */
+    public static long getCell(int cellX, int cellY) {
+        return ((long)cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+
+    private static long getCell(Sprite sprite) {
+        return getCell(TileMapDrawer.pixelsToTiles(sprite.getX()),
+            TileMapDrawer.pixelsToTiles(sprite.getY()));
+    }
+
+
+    private int getBucketIndex(long cell) {
+        return getBucketIndex((int)(cell >> 32), (int)cell);
+    }
+
+
+    private void updateMaxSize(Sprite sprite) {
+        maxWidth = Math.max(maxWidth, sprite.getWidth());
+        maxHeight = Math.max(maxHeight, sprite.getHeight());
+    }
+
+
+    private void insert(Sprite sprite, long cell) {
+        int index = getBucketIndex(cell);
+        Sprite[] bucket = buckets[index];
+        int bucketSize = bucketSizes[index];
+        if (bucket == null) {
+            bucket = new Sprite[INITIAL_BUCKET_SIZE];
+            buckets[index] = bucket;
+        }
+        else if (bucketSize == bucket.length) {
+            Sprite[] newBucket = new Sprite[bucketSize * 2];
+            System.arraycopy(bucket, 0, newBucket, 0, bucketSize);
+            bucket = newBucket;
+            buckets[index] = bucket;
+        }
+        bucket[bucketSize] = sprite;
+        bucketSizes[index] = bucketSize + 1;
+    }
+
+
+    private boolean delete(Sprite sprite, int index) {
+        Sprite[] bucket = buckets[index];
+        int bucketSize = bucketSizes[index];
+        for (int i=0; i<bucketSize; i++) {
+            if (bucket[i] == sprite) {
+                // keep the order, so lookups stay deterministic
+                System.arraycopy(bucket, i + 1, bucket, i,
+                    bucketSize - i - 1);
+                bucket[bucketSize - 1] = null;
+                bucketSizes[index] = bucketSize - 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private void rehash(int bucketCount) {
+        Sprite[][] oldBuckets = buckets;
+        int[] oldSizes = bucketSizes;
+        createTable(bucketCount);
+        for (int i=0; i<oldBuckets.length; i++) {
+            for (int j=0; j<oldSizes[i]; j++) {
+                Sprite sprite = oldBuckets[i][j];
+                insert(sprite, sprite.getCell());
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.TETOSOFT.tilegame;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+    The TextColumnSource class reads the columns of a text map.
+    Text maps are stored row by row, so the lines are read up
+    front, but nothing is parsed until a column is asked for.
+*/
+public class TextColumnSource implements MapColumnSource {
+
+    private String[] lines;
+    private int width;
+
+
+    /**
+        Reads the lines of a text map, skipping comments.
+    */
+    public TextColumnSource(String filename) throws IOException {
+        ArrayList list = new ArrayList();
+        BufferedReader reader = new BufferedReader(
+            new FileReader(filename));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("#")) {
+                    list.add(line);
+                    width = Math.max(width, line.length());
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        lines = (String[])list.toArray(new String[list.size()]);
+    }
+
+
+    public int getWidth() {
+        return width;
+    }
+
+
+    public int getHeight() {
+        return lines.length;
+    }
+
+
+    public void getColumn(int x, char[] column) {
+        for (int y=0; y<lines.length; y++) {
+            String line = lines[y];
+            column[y] = (x < line.length()) ? line.charAt(x) : ' ';
+        }
+    }
+}
@@ -1,21 +1,81 @@
 package com.TETOSOFT.tilegame;
 
 import java.awt.Image;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.TETOSOFT.graphics.Sprite;
 
 /**
     The TileMap class contains the data for a tile-based
-    map, including Sprites. Each tile is a reference to an
-    Image. Of course, Images are used multiple times in the tile
-    map.
+    map, including Sprites. Each tile is stored as a one-byte
+    index into the map's palette of tile Images (index 0 is no
+    tile), since only a handful of different Images are used.
+    The indices can be read and written directly with
+    getTileIndex() and setTileIndex().
+    <p>Tiles are stored in square chunks of CHUNK_SIZE tiles. A
+    chunk is only allocated once a tile is set in it, so empty
+    parts of the map take no memory, and chunks can be unloaded
+    and loaded again (from a ChunkSource) to keep only the part of
+    a very long map near the player in memory.
+    <p>Alongside the tile indices, each chunk keeps one bit per tile that
+    says whether the tile is solid, packed into an int per column.
+    Collision checks read the bits instead of the tiles.
 */
 public class TileMap {
 
-    private Image[][] tiles;
+    /**
+        The width and height of a chunk, in tiles.
+    */
+    public static final int CHUNK_SIZE = 32;
+    private static final int CHUNK_BITS = 5;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+        The largest number of entries in a palette, including the
+        empty tile.
+    */
+    public static final int MAX_PALETTE_SIZE = 256;
+
+    // gives chunks new versions when their tiles change; shared by
+    // all maps, so no two different chunks have the same version
+    private static final AtomicLong chunkVersions = new AtomicLong();
+
+    /**
+        A ChunkSource fills in the tiles of chunks as they are
+        loaded.
+    */
+    public interface ChunkSource {
+
+        /**
+            Sets the tiles of the specified chunk, by calling
+            setTile() on the map.
+        */
+        public void loadChunk(TileMap map, int chunkX, int chunkY);
+    }
+
+    private int width;
+    private int height;
+    private int chunksHigh;
+    // chunk (cx, cy) is chunks[cx * chunksHigh + cy], or null
+    private Chunk[] chunks;
+    private int loadedChunkCount;
+    // the columns of chunks that may have tiles; only copyTiles()
+    // narrows them
+    private int firstChunkX;
+    private int lastChunkX;
+    private ChunkSource chunkSource;
+    private MapStreamer streamer;
+    // palette[0] is null: no tile
+    private Image[] palette = new Image[16];
+    private int paletteSize = 1;
     private LinkedList sprites;
+    // sprites removed from the map but still in the sprites list
+    private HashSet removedSprites;
+    private SpatialHash spriteIndex;
+    private SortAndSweep creatures;
     private Sprite player;
 
     /**
@@ -23,8 +83,113 @@ public class TileMap {
         height (in number of tiles) of the map.
     */
     public TileMap(int width, int height) {
-        tiles = new Image[width][height];
+        this.width = width;
+        this.height = height;
+        chunksHigh = (height + CHUNK_MASK) >> CHUNK_BITS;
+        int chunksWide = (width + CHUNK_MASK) >> CHUNK_BITS;
+        chunks = new Chunk[chunksWide * chunksHigh];
+        lastChunkX = chunksWide - 1;
         sprites = new LinkedList();
+        removedSprites = new HashSet();
+        spriteIndex = new SpatialHash();
+        creatures = new SortAndSweep();
+    }
+
+
+    /**
+        Creates a TileMap with the same size, tiles, palette and
+        ChunkSource as this one, but no sprites or player. The two
+        maps share their chunks until either one sets a tile in
+        a chunk, which then gets its own copy of that chunk, so
+        making the copy takes no more than copying the chunk
+        references.
+    */
+    public TileMap copyTiles() {
+        return copyTiles(null);
+    }
+
+
+    /**
+        Marks all of this map's chunks as shared and takes the
+        removed Sprites out of its list, so that copyTiles() and
+        getSprites() no longer write to it. A map that is only
+        read from then on can be copied by several threads at once.
+    */
+    public void freeze() {
+        for (int i=0; i<chunks.length; i++) {
+            if (chunks[i] != null) {
+                chunks[i].shared = true;
+            }
+        }
+        compactSprites();
+    }
+
+
+    /**
+        Copies the tiles, palette and ChunkSource of this map into
+        the specified map, as copyTiles() does, and returns it. The
+        specified map's own tiles are dropped. If it is null, or
+        not the size of this map, a new map is returned instead.
+        Copying into the same map again and again, as a snapshot
+        of this one, makes no garbage.
+    */
+    public TileMap copyTiles(TileMap copy) {
+        return copyTiles(copy, 0, width - 1);
+    }
+
+
+    /**
+        Copies the tiles of the chunks that hold the specified
+        columns of tiles into the specified map, as
+        copyTiles(TileMap) does; the copy's other chunks are empty.
+        The copy remembers which columns of chunks it holds, so
+        copying into it again only touches those and the new ones:
+        a snapshot of the part of the map on screen takes the same
+        time however big the map is. Don't set tiles of such a
+        copy.
+    */
+    public TileMap copyTiles(TileMap copy, int fromX, int toX) {
+        if (copy == null || copy.width != width ||
+            copy.height != height)
+        {
+            copy = new TileMap(width, height);
+        }
+        int fromChunkX = Math.max(fromX, 0) >> CHUNK_BITS;
+        int toChunkX = Math.min(toX, width - 1) >> CHUNK_BITS;
+
+        // empty the chunks the copy has that are out of range
+        for (int x=copy.firstChunkX; x<=copy.lastChunkX; x++) {
+            if (x < fromChunkX || x > toChunkX) {
+                for (int y=0; y<chunksHigh; y++) {
+                    copy.chunks[x * chunksHigh + y] = null;
+                }
+            }
+        }
+
+        int loaded = 0;
+        for (int x=fromChunkX; x<=toChunkX; x++) {
+            for (int y=0; y<chunksHigh; y++) {
+                int index = x * chunksHigh + y;
+                Chunk chunk = chunks[index];
+                if (chunk != null) {
+                    if (!chunk.shared) {
+                        chunk.shared = true;
+                    }
+                    loaded++;
+                }
+                copy.chunks[index] = chunk;
+            }
+        }
+        copy.firstChunkX = fromChunkX;
+        copy.lastChunkX = toChunkX;
+        copy.loadedChunkCount = loaded;
+        copy.chunkSource = chunkSource;
+        if (copy.palette.length < paletteSize) {
+            copy.palette = new Image[palette.length];
+        }
+        System.arraycopy(palette, 0, copy.palette, 0, paletteSize);
+        copy.paletteSize = paletteSize;
+        return copy;
     }
 
 
@@ -32,7 +197,7 @@ public class TileMap {
         Gets the width of this TileMap (number of tiles across).
     */
     public int getWidth() {
-        return tiles.length;
+        return width;
     }
 
 
@@ -40,7 +205,7 @@ public class TileMap {
         Gets the height of this TileMap (number of tiles down).
     */
     public int getHeight() {
-        return tiles[0].length;
+        return height;
     }
 
 
@@ -50,22 +215,248 @@ public class TileMap {
         bounds.
     */
     public Image getTile(int x, int y) {
-        if (x < 0 || x >= getWidth() ||
-            y < 0 || y >= getHeight())
-        {
-            return null;
+        return palette[getTileIndex(x, y)];
+    }
+
+
+    /**
+        Sets the tile at the specified location, adding its Image
+        to the palette if needed.
+    */
+    public void setTile(int x, int y, Image tile) {
+        setTileIndex(x, y, getPaletteIndex(tile));
+    }
+
+
+    /**
+        Gets the palette index of the tile at the specified
+        location. Returns 0 if no tile is at the location or if the
+        location is out of bounds.
+    */
+    public int getTileIndex(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return 0;
+        }
+        Chunk chunk = chunks[(x >> CHUNK_BITS) * chunksHigh +
+            (y >> CHUNK_BITS)];
+        if (chunk == null) {
+            return 0;
+        }
+        return chunk.tiles[((x & CHUNK_MASK) << CHUNK_BITS) |
+            (y & CHUNK_MASK)] & 0xff;
+    }
+
+
+    /**
+        Sets the palette index of the tile at the specified
+        location. Setting a tile in an empty chunk allocates the
+        chunk. Throws IndexOutOfBoundsException if the location is
+        out of bounds.
+    */
+    public void setTileIndex(int x, int y, int tile) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IndexOutOfBoundsException(
+                "Tile (" + x + ", " + y + ") is outside the " + width +
+                "x" + height + " map");
+        }
+        if (tile < 0 || tile >= paletteSize) {
+            throw new IllegalArgumentException(
+                "No tile " + tile + " in the palette");
+        }
+        int index = (x >> CHUNK_BITS) * chunksHigh + (y >> CHUNK_BITS);
+        Chunk chunk = chunks[index];
+        if (chunk == null) {
+            if (tile == 0) {
+                return;
+            }
+            chunk = new Chunk();
+            chunks[index] = chunk;
+            loadedChunkCount++;
+        }
+        else if (chunk.shared) {
+            chunk = new Chunk(chunk);
+            chunks[index] = chunk;
+        }
+        int column = x & CHUNK_MASK;
+        chunk.tiles[(column << CHUNK_BITS) | (y & CHUNK_MASK)] =
+            (byte)tile;
+        chunk.version = chunkVersions.incrementAndGet();
+        if (tile != 0) {
+            chunk.solid[column] |= 1 << y;
         }
         else {
-            return tiles[x][y];
+            chunk.solid[column] &= ~(1 << y);
         }
     }
 
 
     /**
-        Sets the tile at the specified location.
+        Gets the palette index of the specified tile Image, adding
+        it to the palette if it isn't there yet. The index of null
+        (no tile) is 0.
     */
-    public void setTile(int x, int y, Image tile) {
-        tiles[x][y] = tile;
+    public int getPaletteIndex(Image tile) {
+        if (tile == null) {
+            return 0;
+        }
+        for (int i=1; i<paletteSize; i++) {
+            if (palette[i] == tile) {
+                return i;
+            }
+        }
+        if (paletteSize == MAX_PALETTE_SIZE) {
+            throw new IllegalStateException(
+                "More than " + (MAX_PALETTE_SIZE - 1) + " tile images");
+        }
+        if (paletteSize == palette.length) {
+            Image[] newPalette = new Image[paletteSize * 2];
+            System.arraycopy(palette, 0, newPalette, 0, paletteSize);
+            palette = newPalette;
+        }
+        palette[paletteSize] = tile;
+        return paletteSize++;
+    }
+
+
+    /**
+        Gets the tile Image with the specified palette index.
+    */
+    public Image getPaletteImage(int index) {
+        return palette[index];
+    }
+
+
+    /**
+        Gets the number of entries in the palette, including the
+        empty tile at index 0.
+    */
+    public int getPaletteSize() {
+        return paletteSize;
+    }
+
+
+    /**
+        Checks if there is a tile at the specified location.
+        Returns false if the location is out of bounds.
+    */
+    public boolean isSolid(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return false;
+        }
+        Chunk chunk = chunks[(x >> CHUNK_BITS) * chunksHigh +
+            (y >> CHUNK_BITS)];
+        return chunk != null &&
+            (chunk.solid[x & CHUNK_MASK] & (1 << y)) != 0;
+    }
+
+
+    /**
+        Gets the topmost row from fromY to toY (inclusive) that
+        has a tile in column x, or -1 if there is none. Rows out
+        of bounds have no tiles. The column must be in bounds.
+    */
+    public int getFirstSolidY(int x, int fromY, int toY) {
+        fromY = Math.max(fromY, 0);
+        toY = Math.min(toY, height - 1);
+        int base = (x >> CHUNK_BITS) * chunksHigh;
+        int column = x & CHUNK_MASK;
+        int y = fromY;
+        while (y <= toY) {
+            // bits from y to the end of the chunk, or to toY
+            int lastY = y | CHUNK_MASK;
+            Chunk chunk = chunks[base + (y >> CHUNK_BITS)];
+            if (chunk != null) {
+                int bits = chunk.solid[column] & (-1 << y);
+                if (toY < lastY) {
+                    bits &= -1 >>> (CHUNK_MASK - (toY & CHUNK_MASK));
+                }
+                if (bits != 0) {
+                    return (y & ~CHUNK_MASK) +
+                        Integer.numberOfTrailingZeros(bits);
+                }
+            }
+            y = lastY + 1;
+        }
+        return -1;
+    }
+
+
+    /**
+        Sets the ChunkSource that loadChunk() gets tiles from, or
+        null if chunks can't be loaded again once unloaded.
+    */
+    public void setChunkSource(ChunkSource chunkSource) {
+        this.chunkSource = chunkSource;
+    }
+
+
+    /**
+        Sets the MapStreamer that loads this map's columns as the
+        player moves, or null if the whole map is loaded.
+    */
+    public void setStreamer(MapStreamer streamer) {
+        this.streamer = streamer;
+    }
+
+
+    public MapStreamer getStreamer() {
+        return streamer;
+    }
+
+
+    /**
+        Checks if the specified chunk has tiles in memory.
+    */
+    public boolean isChunkLoaded(int chunkX, int chunkY) {
+        return chunks[chunkX * chunksHigh + chunkY] != null;
+    }
+
+
+    /**
+        Gets the version of the tiles of the specified chunk. The
+        version changes whenever a tile of the chunk is set, or the
+        chunk is loaded or unloaded, so anything made from the tiles
+        can be kept until it does. Versions are never reused, by
+        this map or any other, so two chunks with the same version
+        have the same tiles. An empty chunk has version 0.
+    */
+    public long getChunkVersion(int chunkX, int chunkY) {
+        Chunk chunk = chunks[chunkX * chunksHigh + chunkY];
+        return (chunk == null) ? 0 : chunk.version;
+    }
+
+
+    /**
+        Gets the number of chunks with tiles in memory.
+    */
+    public int getLoadedChunkCount() {
+        return loadedChunkCount;
+    }
+
+
+    /**
+        Loads the tiles of the specified chunk from the ChunkSource,
+        if it isn't loaded already. Does nothing if there is no
+        ChunkSource.
+    */
+    public void loadChunk(int chunkX, int chunkY) {
+        if (chunkSource != null && !isChunkLoaded(chunkX, chunkY)) {
+            chunkSource.loadChunk(this, chunkX, chunkY);
+        }
+    }
+
+
+    /**
+        Frees the tiles of the specified chunk. Until it is loaded
+        again, the chunk is empty. Without a ChunkSource, its tiles
+        are lost.
+    */
+    public void unloadChunk(int chunkX, int chunkY) {
+        int index = chunkX * chunksHigh + chunkY;
+        if (chunks[index] != null) {
+            chunks[index] = null;
+            loadedChunkCount--;
+        }
     }
 
 
@@ -78,35 +469,149 @@ public class TileMap {
 
 
     /**
-        Sets the player Sprite.
+        Sets the player Sprite. Its current position is saved as
+        its position before the next update, so it isn't drawn
+        moving in from where it was before.
     */
     public void setPlayer(Sprite player) {
         this.player = player;
+        player.savePosition();
     }
 
 
     /**
-        Adds a Sprite object to this map.
+        Adds a Sprite object to this map. Its current position is
+        saved as its position before the next update, so it isn't
+        drawn moving in from the origin.
     */
     public void addSprite(Sprite sprite) {
-        sprites.add(sprite);
+        sprite.savePosition();
+        // a Sprite removed since the list was last compacted is
+        // still in the list
+        if (!removedSprites.remove(sprite)) {
+            sprites.add(sprite);
+        }
+        spriteIndex.add(sprite);
     }
 
 
     /**
-        Removes a Sprite object from this map.
+        Removes a Sprite object from this map. The Sprite is
+        removed from the sprite index at once, but only marked as
+        removed in the list of Sprites; marked Sprites are taken
+        out of the list in one pass, the next time it is iterated
+        or once they make up a third of it, so removing a Sprite
+        takes constant time.
     */
     public void removeSprite(Sprite sprite) {
-        sprites.remove(sprite);
+        // Sprites not in the sprite index aren't in the map
+        if (sprite.getCell() != Sprite.NO_CELL &&
+            removedSprites.add(sprite))
+        {
+            spriteIndex.remove(sprite);
+            if (removedSprites.size() * 3 > sprites.size()) {
+                compactSprites();
+            }
+        }
+    }
+
+
+    /**
+        Takes the Sprites marked as removed out of the list of
+        Sprites.
+    */
+    private void compactSprites() {
+        if (removedSprites.isEmpty()) {
+            return;
+        }
+        Iterator i = sprites.iterator();
+        while (i.hasNext()) {
+            if (removedSprites.contains(i.next())) {
+                i.remove();
+            }
+        }
+        removedSprites.clear();
+    }
+
+
+    /**
+        Tells this map that a Sprite has moved, so it can be found
+        at its new position in the sprite index.
+    */
+    public void spriteMoved(Sprite sprite) {
+        spriteIndex.update(sprite);
+    }
+
+
+    /**
+        Gets the index of the Sprites in this map (excluding the
+        player Sprite) by position.
+    */
+    public SpatialHash getSpriteIndex() {
+        return spriteIndex;
+    }
+
+
+    /**
+        Gets the active Creatures in this map (excluding the player
+        Sprite), sorted to find the ones that touch each other.
+    */
+    public SortAndSweep getCreatures() {
+        return creatures;
     }
 
 
     /**
         Gets an Iterator of all the Sprites in this map,
-        excluding the player Sprite.
+        excluding the player Sprite. Sprites removed through the
+        Iterator are removed from the sprite index as well.
     */
     public Iterator getSprites() {
-        return sprites.iterator();
+        compactSprites();
+        final Iterator i = sprites.iterator();
+        return new Iterator() {
+            private Sprite current;
+
+            public boolean hasNext() {
+                return i.hasNext();
+            }
+
+            public Object next() {
+                current = (Sprite)i.next();
+                return current;
+            }
+
+            public void remove() {
+                i.remove();
+                spriteIndex.remove(current);
+            }
+        };
+    }
+
+
+    /**
+        A square of CHUNK_SIZE by CHUNK_SIZE palette indices, stored
+        column by column.
+    */
+    private static class Chunk {
+        byte[] tiles;
+        // solid bits: bit (y & 31) of solid[x & 31]
+        int[] solid;
+        // true if more than one map may hold this chunk, so it
+        // must be copied before a tile is set
+        boolean shared;
+        long version;
+
+        Chunk() {
+            tiles = new byte[CHUNK_SIZE * CHUNK_SIZE];
+            solid = new int[CHUNK_SIZE];
+        }
+
+        Chunk(Chunk chunk) {
+            tiles = chunk.tiles.clone();
+            solid = chunk.solid.clone();
+            version = chunk.version;
+        }
     }
 
 }
@@ -1,10 +1,11 @@
 package com.TETOSOFT.tilegame;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 import java.util.Iterator;
 
 import com.TETOSOFT.graphics.Sprite;
-import com.TETOSOFT.tilegame.sprites.Creature;
 
 /**
     The TileMapRenderer class draws a TileMap on the screen.
@@ -19,6 +20,14 @@ import com.TETOSOFT.tilegame.sprites.Creature;
     to tile positions, and vice-versa.
 
     <p>This TileMapRender uses a tile size of 64.
+
+    <p>When there is a display, tiles are drawn in blocks of
+    BLOCK_SIZE by BLOCK_SIZE tiles, each drawn once into an image
+    and kept until its tiles change, so a frame takes a few block
+    images instead of an image per tile. Block images are
+    VolatileImages, kept in video memory, or BufferedImages if the
+    display can't make them. Only the MAX_CACHED_BLOCKS blocks drawn
+    last are kept.
 */
 public class TileMapDrawer 
 {
@@ -28,8 +37,32 @@ public class TileMapDrawer
     // Math.pow(2, TILE_SIZE_BITS) == TILE_SIZE
     private static final int TILE_SIZE_BITS = 6;
 
+    /**
+        The width and height of a cached block of tiles, in tiles.
+        A block always lies within one chunk of the TileMap.
+    */
+    public static final int BLOCK_SIZE = 8;
+    private static final int BLOCK_BITS = 3;
+    private static final int BLOCK_PIXELS = BLOCK_SIZE * TILE_SIZE;
+
+    /**
+        The largest number of block images kept.
+    */
+    public static final int MAX_CACHED_BLOCKS = 16;
+
+    private static final Color CLEAR = new Color(0, 0, 0, 0);
+
     private Image background;
 
+    // block images; the least recently drawn one is reused for a
+    // block that isn't cached
+    private CachedBlock[] blocks = new CachedBlock[MAX_CACHED_BLOCKS];
+    // counts drawn blocks, to find the least recently drawn one
+    private long blockDraws;
+    // versions of the chunks the tiles of a block are drawn from
+    private long[] chunkVersions = new long[4];
+    private boolean cacheTiles = !GraphicsEnvironment.isHeadless();
+
     /**
         Converts a pixel position to a tile position.
     */
@@ -79,19 +112,108 @@ public class TileMapDrawer
     public void draw(Graphics2D g, TileMap map,
         int screenWidth, int screenHeight)
     {
-        Sprite player = map.getPlayer();
-        int mapWidth = tilesToPixels(map.getWidth());
+        draw(g, map, screenWidth, screenHeight, 1);
+    }
 
-        // get the scrolling position of the map
-        // based on player's position
+
+    /**
+        Gets the horizontal scrolling position of the map so the
+        player at the specified x position is centered on screen.
+    */
+    public static int getOffsetX(TileMap map, float playerX,
+        int screenWidth)
+    {
+        int mapWidth = tilesToPixels(map.getWidth());
         int offsetX = screenWidth / 2 -
-            Math.round(player.getX()) - TILE_SIZE;
+            Math.round(playerX) - TILE_SIZE;
         offsetX = Math.min(offsetX, 0);
         offsetX = Math.max(offsetX, screenWidth - mapWidth);
+        return offsetX;
+    }
+
+
+    /**
+        Gets the vertical position of the map so its bottom row
+        lines up with the bottom of the screen.
+    */
+    public static int getOffsetY(TileMap map, int screenHeight) {
+        return screenHeight - tilesToPixels(map.getHeight());
+    }
+
+
+    /**
+        Draws the specified TileMap, with every Sprite drawn at
+        its interpolated position for the specified alpha.
+    */
+    public void draw(Graphics2D g, TileMap map,
+        int screenWidth, int screenHeight, float alpha)
+    {
+        Sprite player = map.getPlayer();
+
+        // get the scrolling position of the map
+        // based on player's position
+        int offsetX = getOffsetX(map,
+            player.getInterpolatedX(alpha), screenWidth);
 
         // get the y offset to draw all sprites and tiles
-        int offsetY = screenHeight -
-            tilesToPixels(map.getHeight());
+        int offsetY = getOffsetY(map, screenHeight);
+
+        drawBackground(g, map, offsetX, screenWidth, screenHeight);
+        drawTiles(g, map, offsetX, offsetY, screenWidth, screenHeight);
+
+        // draw player
+        g.drawImage(player.getImage(),
+            Math.round(player.getInterpolatedX(alpha)) + offsetX,
+            Math.round(player.getInterpolatedY(alpha)) + offsetY,
+            null);
+
+        // draw sprites
+        Iterator i = map.getSprites();
+        while (i.hasNext()) {
+            Sprite sprite = (Sprite)i.next();
+            int x = Math.round(sprite.getInterpolatedX(alpha)) + offsetX;
+            int y = Math.round(sprite.getInterpolatedY(alpha)) + offsetY;
+            g.drawImage(sprite.getImage(), x, y, null);
+        }
+    }
+
+
+    /**
+        Draws a RenderSnapshot captured by the simulation thread.
+        Only the snapshot, with its own copy of the tiles, is read,
+        so this is safe to call while the map is updated.
+    */
+    public void draw(Graphics2D g, RenderSnapshot frame,
+        int screenWidth, int screenHeight)
+    {
+        TileMap map = frame.getMap();
+        if (map == null) {
+            // nothing captured yet
+            g.setColor(Color.black);
+            g.fillRect(0, 0, screenWidth, screenHeight);
+            return;
+        }
+
+        int offsetX = frame.getOffsetX();
+        int offsetY = getOffsetY(map, screenHeight);
+
+        drawBackground(g, map, offsetX, screenWidth, screenHeight);
+        drawTiles(g, map, offsetX, offsetY, screenWidth, screenHeight);
+
+        // draw player and sprites
+        for (int i=0; i<frame.getSpriteCount(); i++) {
+            g.drawImage(frame.getImage(i),
+                frame.getX(i) + offsetX,
+                frame.getY(i) + offsetY,
+                null);
+        }
+    }
+
+
+    private void drawBackground(Graphics2D g, TileMap map,
+        int offsetX, int screenWidth, int screenHeight)
+    {
+        int mapWidth = tilesToPixels(map.getWidth());
 
         // draw black background, if needed
         if (background == null ||
@@ -111,13 +233,81 @@ public class TileMapDrawer
             g.drawImage(background, x, y, null);
         
         }
+    }
+
+
+    /**
+        Sets whether tiles are drawn from cached block images. The
+        default is to cache them when there is a display. Without
+        one, block images aren't accelerated, and drawing the tiles
+        one by one is faster.
+    */
+    public void setCacheTiles(boolean cacheTiles) {
+        this.cacheTiles = cacheTiles;
+        flushBlocks();
+    }
+
+
+    /**
+        Frees the cached block images.
+    */
+    public void flushBlocks() {
+        for (int i=0; i<blocks.length; i++) {
+            if (blocks[i] != null) {
+                blocks[i].flush();
+                blocks[i] = null;
+            }
+        }
+    }
+
 
-        // draw the visible tiles
-        int firstTileX = pixelsToTiles(-offsetX);
-        int lastTileX = firstTileX +
-            pixelsToTiles(screenWidth) + 1;
-        for (int y=0; y<map.getHeight(); y++) {
-            for (int x=firstTileX; x <= lastTileX; x++) {
+    private void drawTiles(Graphics2D g, TileMap map,
+        int offsetX, int offsetY, int screenWidth, int screenHeight)
+    {
+        if (!cacheTiles) {
+            // draw the visible tiles, and the row above them, whose
+            // tiles may hang down into view
+            int firstTileX = pixelsToTiles(-offsetX);
+            int lastTileX = pixelsToTiles(-offsetX + screenWidth - 1);
+            int firstTileY = Math.max(pixelsToTiles(-offsetY) - 1, 0);
+            int lastTileY = Math.min(
+                pixelsToTiles(-offsetY + screenHeight - 1),
+                map.getHeight() - 1);
+            drawTiles(g, map, firstTileX, firstTileY, lastTileX,
+                lastTileY, offsetX, offsetY);
+            return;
+        }
+
+        // draw the visible blocks
+        int shift = TILE_SIZE_BITS + BLOCK_BITS;
+        int firstBlockX = Math.max(-offsetX, 0) >> shift;
+        int lastBlockX = (Math.min(-offsetX + screenWidth,
+            tilesToPixels(map.getWidth())) - 1) >> shift;
+        int firstBlockY = Math.max(-offsetY, 0) >> shift;
+        int lastBlockY = (Math.min(-offsetY + screenHeight,
+            tilesToPixels(map.getHeight())) - 1) >> shift;
+        GraphicsConfiguration gc = g.getDeviceConfiguration();
+        for (int blockY=firstBlockY; blockY<=lastBlockY; blockY++) {
+            for (int blockX=firstBlockX; blockX<=lastBlockX; blockX++) {
+                drawBlock(g, gc, map, blockX, blockY,
+                    blockX * BLOCK_PIXELS + offsetX,
+                    blockY * BLOCK_PIXELS + offsetY);
+            }
+        }
+    }
+
+
+    /**
+        Draws the tiles from (firstTileX, firstTileY) to (lastTileX,
+        lastTileY) row by row, so a tile taller or wider than
+        TILE_SIZE is covered by the tiles below and right of it.
+    */
+    private void drawTiles(Graphics2D g, TileMap map,
+        int firstTileX, int firstTileY, int lastTileX, int lastTileY,
+        int offsetX, int offsetY)
+    {
+        for (int y=firstTileY; y<=lastTileY; y++) {
+            for (int x=firstTileX; x<=lastTileX; x++) {
                 Image image = map.getTile(x, y);
                 if (image != null) {
                     g.drawImage(image,
@@ -127,26 +317,207 @@ public class TileMapDrawer
                 }
             }
         }
+    }
 
-        // draw player
-        g.drawImage(player.getImage(),
-            Math.round(player.getX()) + offsetX,
-            Math.round(player.getY()) + offsetY,
-            null);
 
-        // draw sprites
-        Iterator i = map.getSprites();
-        while (i.hasNext()) {
-            Sprite sprite = (Sprite)i.next();
-            int x = Math.round(sprite.getX()) + offsetX;
-            int y = Math.round(sprite.getY()) + offsetY;
-            g.drawImage(sprite.getImage(), x, y, null);
+    /**
+        Draws a block of tiles from its cached image, drawing the
+        image first if the tiles changed or the contents of a
+        VolatileImage were lost.
+    */
+    private void drawBlock(Graphics2D g, GraphicsConfiguration gc,
+        TileMap map, int blockX, int blockY, int x, int y)
+    {
+        if (!getChunkVersions(map, blockX, blockY, chunkVersions)) {
+            // no tiles
+            return;
+        }
+
+        CachedBlock block = getBlock(blockX, blockY);
+        block.lastDrawn = ++blockDraws;
 
-            // wake up the creature when it's on screen
-            if (sprite instanceof Creature &&
-                x >= 0 && x < screenWidth)
+        for (int tries=0; tries<3; tries++) {
+            boolean redraw = (block.image == null ||
+                !block.isDrawnFrom(chunkVersions));
+            if (block.image instanceof VolatileImage) {
+                VolatileImage image = (VolatileImage)block.image;
+                int status = image.validate(gc);
+                if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    image.flush();
+                    block.image = null;
+                }
+                redraw |= (status != VolatileImage.IMAGE_OK);
+            }
+            if (block.image == null) {
+                block.image = createBlockImage(gc);
+            }
+            if (redraw) {
+                block.hasTiles = drawBlockImage(block.image, map,
+                    blockX, blockY);
+                block.setDrawnFrom(chunkVersions);
+            }
+            if (block.hasTiles) {
+                g.drawImage(block.image, x, y, null);
+            }
+            if (!(block.image instanceof VolatileImage) ||
+                !((VolatileImage)block.image).contentsLost())
             {
-                ((Creature)sprite).wakeUp();
+                return;
+            }
+            // lost while drawing: draw the image again
+            block.drawn = false;
+        }
+    }
+
+
+    /**
+        Gets the cached image of a block, or reuses the least
+        recently drawn one for it.
+    */
+    private CachedBlock getBlock(int blockX, int blockY) {
+        CachedBlock oldest = null;
+        for (int i=0; i<blocks.length; i++) {
+            CachedBlock block = blocks[i];
+            if (block == null) {
+                block = new CachedBlock();
+                blocks[i] = block;
+            }
+            else if (block.blockX == blockX && block.blockY == blockY) {
+                return block;
+            }
+            if (oldest == null || block.lastDrawn < oldest.lastDrawn) {
+                oldest = block;
+            }
+        }
+        oldest.blockX = blockX;
+        oldest.blockY = blockY;
+        oldest.drawn = false;
+        return oldest;
+    }
+
+
+    /**
+        Gets the versions of the chunks whose tiles are drawn in a
+        block: the chunk of the block, and the chunks left of it,
+        above it and above left of it, whose last row or column may
+        hang over into the block, or 0 for those that don't touch
+        it. Chunk versions are never reused, so the same versions
+        always mean the same tiles. Returns false if there are no
+        tiles.
+    */
+    private boolean getChunkVersions(TileMap map, int blockX,
+        int blockY, long[] versions)
+    {
+        int fromX = blockX * BLOCK_SIZE;
+        int fromY = blockY * BLOCK_SIZE;
+        int chunkX = fromX / TileMap.CHUNK_SIZE;
+        int chunkY = fromY / TileMap.CHUNK_SIZE;
+        boolean left = (fromX % TileMap.CHUNK_SIZE == 0 && chunkX > 0);
+        boolean above = (fromY % TileMap.CHUNK_SIZE == 0 && chunkY > 0);
+        versions[0] = map.getChunkVersion(chunkX, chunkY);
+        versions[1] = left ?
+            map.getChunkVersion(chunkX - 1, chunkY) : 0;
+        versions[2] = above ?
+            map.getChunkVersion(chunkX, chunkY - 1) : 0;
+        versions[3] = (left && above) ?
+            map.getChunkVersion(chunkX - 1, chunkY - 1) : 0;
+        return (versions[0] | versions[1] | versions[2] |
+            versions[3]) != 0;
+    }
+
+
+    /**
+        Creates a block image: a VolatileImage, or a BufferedImage
+        if the graphics configuration can't make one.
+    */
+    private Image createBlockImage(GraphicsConfiguration gc) {
+        if (gc == null) {
+            return new BufferedImage(BLOCK_PIXELS, BLOCK_PIXELS,
+                BufferedImage.TYPE_INT_ARGB);
+        }
+        Image image = null;
+        try {
+            image = gc.createCompatibleVolatileImage(BLOCK_PIXELS,
+                BLOCK_PIXELS, Transparency.BITMASK);
+        }
+        catch (UnsupportedOperationException ex) {
+            // no accelerated images for this configuration
+        }
+        if (image == null) {
+            image = gc.createCompatibleImage(BLOCK_PIXELS, BLOCK_PIXELS,
+                Transparency.BITMASK);
+        }
+        return image;
+    }
+
+
+    /**
+        Draws the tiles of a block into its image, on a
+        transparent background. The row and column before the
+        block are drawn too, for tiles that hang over into it.
+        Returns false if nothing was drawn into the image.
+    */
+    private boolean drawBlockImage(Image image, TileMap map,
+        int blockX, int blockY)
+    {
+        Graphics2D g = (Graphics2D)image.getGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setColor(CLEAR);
+        g.fillRect(0, 0, BLOCK_PIXELS, BLOCK_PIXELS);
+        g.setComposite(AlphaComposite.SrcOver);
+
+        int fromX = blockX * BLOCK_SIZE;
+        int fromY = blockY * BLOCK_SIZE;
+        boolean hasTiles = false;
+        for (int y=fromY - 1; y<fromY + BLOCK_SIZE && !hasTiles; y++) {
+            for (int x=fromX - 1; x<fromX + BLOCK_SIZE && !hasTiles; x++) {
+                hasTiles = (map.getTile(x, y) != null);
+            }
+        }
+        if (hasTiles) {
+            drawTiles(g, map, fromX - 1, fromY - 1,
+                fromX + BLOCK_SIZE - 1, fromY + BLOCK_SIZE - 1,
+                -tilesToPixels(fromX), -tilesToPixels(fromY));
+        }
+        g.dispose();
+        return hasTiles;
+    }
+
+
+    /**
+        A block image, and the versions of the chunks it was drawn
+        from.
+    */
+    private static class CachedBlock {
+        int blockX = -1;
+        int blockY = -1;
+        Image image;
+        boolean drawn;
+        long[] chunkVersions = new long[4];
+        boolean hasTiles;
+        long lastDrawn;
+
+        boolean isDrawnFrom(long[] versions) {
+            if (!drawn) {
+                return false;
+            }
+            for (int i=0; i<versions.length; i++) {
+                if (chunkVersions[i] != versions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void setDrawnFrom(long[] versions) {
+            System.arraycopy(versions, 0, chunkVersions, 0,
+                versions.length);
+            drawn = true;
+        }
+
+        void flush() {
+            if (image != null) {
+                image.flush();
             }
         }
     }
@@ -0,0 +1,190 @@
+package com.TETOSOFT.tilegame;
+
+/**
+    The TileSweep class moves a box through the tiles of a TileMap
+    and finds the first tile it hits: the time of impact (0 at the
+    start of the move, 1 at the end), the normal of the side that
+    was hit, and the tile. Every tile the box passes through is
+    considered, so no move is too long to stop at a wall, however
+    big the time step.
+    <p>Columns left and right of the map count as solid, rows above
+    and below don't, so creatures can't leave the map sideways but
+    can jump above it and fall out of the bottom.
+    <p>A TileSweep holds the result of the last sweep, so it can
+    be reused without creating garbage.
+*/
+public class TileSweep {
+
+    private static final int TILE_SIZE = TileMapDrawer.tilesToPixels(1);
+
+    private boolean hit;
+    private float time;
+    private int normalX;
+    private int normalY;
+    private int tileX;
+    private int tileY;
+
+
+    /**
+        Moves a box of the specified position and size by (dx, dy)
+        pixels. Returns true if it hits a tile on the way. Boxes
+        that only touch a tile, or move away from it, don't hit it.
+    */
+    public boolean sweep(TileMap map, float x, float y,
+        int width, int height, float dx, float dy)
+    {
+        hit = false;
+        time = 1;
+        if (dx == 0 && dy == 0) {
+            return false;
+        }
+
+        // tiles covered by the box over the whole move
+        int fromTileX = floorTile(Math.min(x, x + dx));
+        int toTileX = ceilTile(Math.max(x, x + dx) + width) - 1;
+        int fromTileY = floorTile(Math.min(y, y + dy));
+        int toTileY = ceilTile(Math.max(y, y + dy) + height) - 1;
+
+        for (int tx=fromTileX; tx<=toTileX; tx++) {
+            if (tx < 0 || tx >= map.getWidth()) {
+                // off the map: a wall from top to bottom
+                test(tx, fromTileY, x, y, width, height, dx, dy,
+                    Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+                continue;
+            }
+            int ty = map.getFirstSolidY(tx, fromTileY, toTileY);
+            while (ty >= 0) {
+                test(tx, ty, x, y, width, height, dx, dy,
+                    TileMapDrawer.tilesToPixels(ty),
+                    TileMapDrawer.tilesToPixels(ty + 1));
+                ty = (ty < toTileY) ?
+                    map.getFirstSolidY(tx, ty + 1, toTileY) : -1;
+            }
+        }
+        return hit;
+    }
+
+
+    /**
+        Checks a tile with the specified vertical extent, keeping
+        it if it's hit earlier than the earliest so far.
+    */
+    private void test(int tx, int ty, float x, float y,
+        int width, int height, float dx, float dy,
+        float tileTop, float tileBottom)
+    {
+        float tileLeft = TileMapDrawer.tilesToPixels(tx);
+        float tileRight = tileLeft + TILE_SIZE;
+
+        // times the box enters and leaves the tile on each axis
+        float enterX, exitX, enterY, exitY;
+        if (dx > 0) {
+            enterX = (tileLeft - (x + width)) / dx;
+            exitX = (tileRight - x) / dx;
+        }
+        else if (dx < 0) {
+            enterX = (tileRight - x) / dx;
+            exitX = (tileLeft - (x + width)) / dx;
+        }
+        else if (x < tileRight && x + width > tileLeft) {
+            enterX = Float.NEGATIVE_INFINITY;
+            exitX = Float.POSITIVE_INFINITY;
+        }
+        else {
+            return;
+        }
+        if (dy > 0) {
+            enterY = (tileTop - (y + height)) / dy;
+            exitY = (tileBottom - y) / dy;
+        }
+        else if (dy < 0) {
+            enterY = (tileBottom - y) / dy;
+            exitY = (tileTop - (y + height)) / dy;
+        }
+        else if (y < tileBottom && y + height > tileTop) {
+            enterY = Float.NEGATIVE_INFINITY;
+            exitY = Float.POSITIVE_INFINITY;
+        }
+        else {
+            return;
+        }
+
+        float enter = Math.max(enterX, enterY);
+        float exit = Math.min(exitX, exitY);
+        if (enter >= exit || exit <= 0 || enter > 1) {
+            return;
+        }
+
+        // a box that already overlaps the tile hits it at once
+        enter = Math.max(enter, 0);
+        if (!hit || enter < time) {
+            hit = true;
+            time = enter;
+            tileX = tx;
+            tileY = ty;
+            if (enterX >= enterY) {
+                normalX = (dx > 0) ? -1 : 1;
+                normalY = 0;
+            }
+            else {
+                normalX = 0;
+                normalY = (dy > 0) ? -1 : 1;
+            }
+        }
+    }
+
+
+    private static int floorTile(float pixels) {
+        return (int)Math.floor(pixels / TILE_SIZE);
+    }
+
+
+    private static int ceilTile(float pixels) {
+        return (int)Math.ceil(pixels / TILE_SIZE);
+    }
+
+
+    /**
+        Checks if the last sweep hit a tile.
+    */
+    public boolean isHit() {
+        return hit;
+    }
+
+
+    /**
+        Gets the time of impact of the last sweep, from 0 (the
+        start of the move) to 1 (the end, or no hit).
+    */
+    public float getTime() {
+        return time;
+    }
+
+
+    /**
+        Gets the x of the normal of the side that was hit: -1 for
+        a tile's left side, 1 for its right side, or 0.
+    */
+    public int getNormalX() {
+        return normalX;
+    }
+
+
+    /**
+        Gets the y of the normal of the side that was hit: -1 for
+        a tile's top, 1 for its bottom, or 0.
+    */
+    public int getNormalY() {
+        return normalY;
+    }
+
+
+    public int getTileX() {
+        return tileX;
+    }
+
+
+    public int getTileY() {
+        return tileY;
+    }
+}
@@ -6,9 +6,10 @@ import com.TETOSOFT.graphics.*;
 /**
     A Creature is a Sprite that is affected by gravity and can
     die. It has four Animations: moving left, moving right,
-    dying on the left, and dying on the right.
+    dying on the left, and dying on the right. Its position and
+    velocity can be kept in an EntityStore.
 */
-public abstract class Creature extends Sprite {
+public abstract class Creature extends EntitySprite {
 
     /**
         Amount of time to go from STATE_DYING to STATE_DEAD.
@@ -25,6 +26,10 @@ public abstract class Creature extends Sprite {
     private Animation deadRight;
     private int state;
     private long stateTime;
+    private boolean active;
+    // constructor of this subclass, looked up once and handed on
+    // to clones
+    private Constructor constructor;
 
     /**
         Creates a new Creature with the specified Animations.
@@ -43,14 +48,19 @@ public abstract class Creature extends Sprite {
 
     public Object clone() {
         // use reflection to create the correct subclass
-        Constructor constructor = getClass().getConstructors()[0];
+        if (constructor == null) {
+            constructor = getClass().getConstructors()[0];
+        }
         try {
-            return constructor.newInstance(new Object[] {
-                (Animation)left.clone(),
-                (Animation)right.clone(),
-                (Animation)deadLeft.clone(),
-                (Animation)deadRight.clone()
-            });
+            Creature creature = (Creature)constructor.newInstance(
+                new Object[] {
+                    (Animation)left.clone(),
+                    (Animation)right.clone(),
+                    (Animation)deadLeft.clone(),
+                    (Animation)deadRight.clone()
+                });
+            creature.constructor = constructor;
+            return creature;
         }
         catch (Exception ex) {
             // should never happen
@@ -112,6 +122,24 @@ public abstract class Creature extends Sprite {
     }
 
 
+    /**
+        Checks if this creature is near enough to the screen to be
+        updated.
+    */
+    public boolean isActive() {
+        return active;
+    }
+
+
+    /**
+        Sets whether this creature is near enough to the screen to
+        be updated.
+    */
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+
+
     /**
         Checks if this creature is flying.
     */
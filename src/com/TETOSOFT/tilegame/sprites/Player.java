@@ -58,6 +58,20 @@ public class Player extends Creature
     }
 
 
+    /**
+        Checks if the player is standing on the ground, and so can
+        jump.
+    */
+    public boolean isOnGround() {
+        return onGround;
+    }
+
+
+    public void setOnGround(boolean onGround) {
+        this.onGround = onGround;
+    }
+
+
     public float getMaxSpeed() {
         return 0.5f;
     }
@@ -8,16 +8,24 @@ import com.TETOSOFT.graphics.*;
 */
 public abstract class PowerUp extends Sprite {
 
+    // constructor of this subclass, looked up once and handed on
+    // to clones
+    private Constructor constructor;
+
     public PowerUp(Animation anim) {
         super(anim);
     }
 
     public Object clone() {
         // use reflection to create the correct subclass
-        Constructor constructor = getClass().getConstructors()[0];
+        if (constructor == null) {
+            constructor = getClass().getConstructors()[0];
+        }
         try {
-            return constructor.newInstance(
+            PowerUp powerUp = (PowerUp)constructor.newInstance(
                 new Object[] {(Animation)anim.clone()});
+            powerUp.constructor = constructor;
+            return powerUp;
         }
         catch (Exception ex) {
             // should never happen